@@ -0,0 +1,70 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Alphabet classes.
+ *  @author Terrance Wang
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Check that ALPHA holds exactly the characters of VALS, in
+     *  order, and none of the characters in OTHERS. */
+    private void checkAlphabet(Alphabet alpha, String vals, String others) {
+        assertEquals(vals.length(), alpha.size());
+        for (int i = 0; i < vals.length(); i += 1) {
+            assertTrue(alpha.contains(vals.charAt(i)));
+            assertEquals(i, alpha.toInt(vals.charAt(i)));
+            assertEquals(vals.charAt(i), alpha.toChar(i));
+        }
+        for (int i = 0; i < others.length(); i += 1) {
+            assertFalse(alpha.contains(others.charAt(i)));
+            assertEquals(-1, alpha.toInt(others.charAt(i)));
+        }
+    }
+
+    @Test
+    public void checkDenseExtended() {
+        checkAlphabet(new ExtendedCharacterRange("012345"), "012345",
+                      "6/A\u0000\uffff");
+        checkAlphabet(new ExtendedCharacterRange("ZYXA"), "ZYXA", "BW");
+    }
+
+    @Test
+    public void checkSparseExtended() {
+        String vals = "A\u4e00\uffff\u0100\u2028z";
+        checkAlphabet(new ExtendedCharacterRange(vals), vals,
+                      "BZ\u4e01\ufffe\u0000");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicates() {
+        new ExtendedCharacterRange("ABCA");
+    }
+
+    @Test
+    public void checkByteAlphabet() {
+        String vals = "ZA\u00e9\u00c9 1";
+        ByteAlphabet alpha =
+            ByteAlphabet.of(new ExtendedCharacterRange(vals));
+        checkAlphabet(alpha, vals, "BYz\u0100\u4e00");
+        assertSame(alpha, ByteAlphabet.of(alpha));
+        for (int i = 0; i < vals.length(); i += 1) {
+            assertEquals(i, alpha.toInt(alpha.toByte(i)));
+        }
+        assertEquals(1, alpha.toInt((byte) 'A'));
+        assertEquals(-1, alpha.toInt((byte) 'a'));
+        assertEquals(1, alpha.fold((byte) 'a'));
+        assertEquals(3, alpha.fold((byte) 0xe9));
+        assertEquals(-1, alpha.fold((byte) 'b'));
+        assertEquals(-1, alpha.fold((byte) 0xff));
+        assertNull(ByteAlphabet.of(new ExtendedCharacterRange("A\u0100")));
+    }
+
+}
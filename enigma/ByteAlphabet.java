@@ -0,0 +1,104 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An Alphabet of ISO-8859-1 characters that can also be indexed by
+ *  bytes, so that single-byte text can be converted without decoding it
+ *  into chars.
+ *  @author Terrance Wang
+ */
+final class ByteAlphabet extends Alphabet {
+
+    /** The characters of ALPHA, each of which must be in ISO-8859-1. */
+    ByteAlphabet(Alphabet alpha) {
+        int n = alpha.size();
+        _bytes = new byte[n];
+        _index = new int[BYTES];
+        _folded = new int[BYTES];
+        Arrays.fill(_index, -1);
+        for (int i = 0; i < n; i += 1) {
+            char ch = alpha.toChar(i);
+            if (ch >= BYTES) {
+                throw error("character '%c' not in ISO-8859-1", ch);
+            }
+            if (_index[ch] != -1) {
+                throw error("duplicate character '%c' in alphabet", ch);
+            }
+            _bytes[i] = (byte) ch;
+            _index[ch] = i;
+        }
+        for (int b = 0; b < BYTES; b += 1) {
+            char upper = Character.toUpperCase((char) b);
+            _folded[b] = upper < BYTES ? _index[upper] : -1;
+        }
+    }
+
+    /** Return ALPHA as a ByteAlphabet, or null if it has characters
+     *  outside ISO-8859-1. */
+    static ByteAlphabet of(Alphabet alpha) {
+        if (alpha instanceof ByteAlphabet) {
+            return (ByteAlphabet) alpha;
+        }
+        for (int i = 0; i < alpha.size(); i += 1) {
+            if (alpha.toChar(i) >= BYTES) {
+                return null;
+            }
+        }
+        return new ByteAlphabet(alpha);
+    }
+
+    @Override
+    int size() {
+        return _bytes.length;
+    }
+
+    @Override
+    boolean contains(char ch) {
+        return toInt(ch) != -1;
+    }
+
+    @Override
+    char toChar(int index) {
+        return (char) (_bytes[index] & 0xff);
+    }
+
+    /** Returns the index of CH, or -1 if it is not in the alphabet. */
+    @Override
+    int toInt(char ch) {
+        return ch < BYTES ? _index[ch] : -1;
+    }
+
+    /** Return character number INDEX as a byte. */
+    byte toByte(int index) {
+        return _bytes[index];
+    }
+
+    /** Return the index of the character whose ISO-8859-1 code is B, or
+     *  -1 if it is not in the alphabet. */
+    int toInt(byte b) {
+        return _index[b & 0xff];
+    }
+
+    /** Return the index of the upper-case form of the character whose
+     *  ISO-8859-1 code is B, as Character.toUpperCase gives it, or -1
+     *  if that is not in the alphabet. */
+    int fold(byte b) {
+        return _folded[b & 0xff];
+    }
+
+    /** Number of distinct bytes. */
+    private static final int BYTES = 256;
+
+    /** Entry I is character number I. */
+    private final byte[] _bytes;
+
+    /** Entry B is the index of the character with code B, or -1. */
+    private final int[] _index;
+
+    /** Entry B is the index of the upper-case form of the character
+     *  with code B, or -1. */
+    private final int[] _folded;
+
+}
@@ -0,0 +1,62 @@
+package enigma;
+
+/** A possible machine setting found by a search, with its score.
+ *  @author Terrance Wang
+ */
+class Candidate implements Comparable<Candidate> {
+
+    /** A candidate using the rotors named ROTORS (reflector first) at
+     *  SETTING, with plugboard PLUGBOARD (possibly null), whose
+     *  decryption had score SCORE. */
+    Candidate(String[] rotors, String setting, Permutation plugboard,
+              double score) {
+        _rotors = rotors.clone();
+        _setting = setting;
+        _plugboard = plugboard;
+        _score = score;
+    }
+
+    /** Return the names of my rotors, reflector first. */
+    String[] rotors() {
+        return _rotors.clone();
+    }
+
+    /** Return my rotor setting. */
+    String setting() {
+        return _setting;
+    }
+
+    /** Return my plugboard, or null. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return my score. */
+    double score() {
+        return _score;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+        return Double.compare(_score, other._score);
+    }
+
+    /** Return me as a settings line in the format read by Main. */
+    @Override
+    public String toString() {
+        String result = "* " + String.join(" ", _rotors) + " " + _setting;
+        if (_plugboard != null && !_plugboard.cycle().trim().isEmpty()) {
+            result += " " + _plugboard.cycle().trim();
+        }
+        return result;
+    }
+
+    /** Names of my rotors. */
+    private final String[] _rotors;
+    /** Setting of my non-reflecting rotors. */
+    private final String _setting;
+    /** My plugboard. */
+    private final Permutation _plugboard;
+    /** Score of my decryption. */
+    private final double _score;
+}
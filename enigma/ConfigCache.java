@@ -0,0 +1,201 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Configurations parsed once per process, and a compiled binary form
+ *  of configuration files that loads without any text parsing.
+ *
+ *  A compiled configuration holds, in the format of DataOutputStream:
+ *  the int MAGIC, the int VERSION, the alphabet (the byte 'R' and its
+ *  first and last characters for a character range, or 'E' and a
+ *  string of its characters), the ints numRotors and numPawls, the
+ *  number of rotors, and for each rotor its kind ('M', 'N' or 'R' as in
+ *  a text configuration), notches, name, cycles and the index of the
+ *  image of each index under its permutation.  Strings are written as
+ *  an int length followed by chars.
+ *  @author Terrance Wang
+ */
+final class ConfigCache {
+
+    /** First int of a compiled configuration ("Enig"). */
+    static final int MAGIC = 0x456e6967;
+    /** Version of the compiled format. */
+    static final int VERSION = 1;
+    /** Largest number of configurations kept. */
+    static final int MAX_TEMPLATES = 256;
+
+    /** Not instantiable. */
+    private ConfigCache() {
+    }
+
+    /** Return a new machine configured from the file named NAME, which
+     *  may be in text or compiled form.  A file is parsed only the first
+     *  time it is loaded (or after it changes); later loads copy the
+     *  machine built then. */
+    static Machine load(String name) {
+        try {
+            Path path = Paths.get(name).toRealPath();
+            BasicFileAttributes attrs =
+                Files.readAttributes(path, BasicFileAttributes.class);
+            String key = path + "\0" + attrs.size() + "\0"
+                + attrs.lastModifiedTime().toMillis();
+            Machine template = TEMPLATES.get(key);
+            if (template == null) {
+                template = parse(Files.readAllBytes(path));
+                if (TEMPLATES.size() < MAX_TEMPLATES) {
+                    TEMPLATES.putIfAbsent(key, template);
+                }
+            }
+            return template.copy();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a machine configured from CONTENTS, the contents of a
+     *  configuration file in text or compiled form. */
+    static Machine parse(byte[] contents) {
+        if (contents.length >= Integer.BYTES
+            && (contents[0] & 0xff) == MAGIC >>> 24
+            && contents[1] == (byte) (MAGIC >>> 16)
+            && contents[2] == (byte) (MAGIC >>> 8)
+            && contents[3] == (byte) MAGIC) {
+            return read(contents);
+        }
+        return Main.readConfig(new Scanner(new String(contents)));
+    }
+
+    /** Write the configuration of MACHINE to OUT in compiled form. */
+    static void write(Machine machine, OutputStream out)
+        throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        Alphabet alpha = machine.alphabet();
+        int size = alpha.size();
+        if (alpha instanceof CharacterRange) {
+            data.writeByte('R');
+            data.writeChar(alpha.toChar(0));
+            data.writeChar(alpha.toChar(size - 1));
+        } else {
+            StringBuilder chars = new StringBuilder();
+            for (int i = 0; i < size; i += 1) {
+                chars.append(alpha.toChar(i));
+            }
+            data.writeByte('E');
+            writeString(data, chars.toString());
+        }
+        data.writeInt(machine.numRotors());
+        data.writeInt(machine.numPawls());
+        data.writeInt(machine.getAllRotor().size());
+        for (Rotor r : machine.getAllRotor()) {
+            if (r.reflecting()) {
+                data.writeByte('R');
+                writeString(data, "");
+            } else if (r.rotates()) {
+                data.writeByte('M');
+                writeString(data, ((MovingRotor) r).getNotches());
+            } else {
+                data.writeByte('N');
+                writeString(data, "");
+            }
+            writeString(data, r.name());
+            Permutation perm = r.permutation();
+            writeString(data, perm.cycle());
+            for (int i = 0; i < size; i += 1) {
+                data.writeChar(perm.permute(i));
+            }
+        }
+        data.flush();
+    }
+
+    /** Return a machine configured from CONTENTS, a compiled
+     *  configuration. */
+    private static Machine read(byte[] contents) {
+        DataInputStream data =
+            new DataInputStream(new ByteArrayInputStream(contents));
+        try {
+            data.readInt();
+            if (data.readInt() != VERSION) {
+                throw error("unsupported compiled configuration version");
+            }
+            Alphabet alpha;
+            byte kind = data.readByte();
+            if (kind == 'R') {
+                alpha = new CharacterRange(data.readChar(), data.readChar());
+            } else if (kind == 'E') {
+                alpha = new ExtendedCharacterRange(readString(data));
+            } else {
+                throw error("bad alphabet in compiled configuration");
+            }
+            int numRotors = data.readInt(), numPawls = data.readInt();
+            int count = data.readInt();
+            ArrayList<Rotor> allRotors = new ArrayList<>();
+            int[] forward = new int[alpha.size()];
+            for (int k = 0; k < count; k += 1) {
+                kind = data.readByte();
+                String notches = readString(data);
+                String name = readString(data);
+                String cycles = readString(data);
+                for (int i = 0; i < forward.length; i += 1) {
+                    forward[i] = data.readChar();
+                }
+                Permutation perm = new Permutation(cycles, alpha, forward);
+                if (kind == 'M') {
+                    allRotors.add(new MovingRotor(name, perm, notches));
+                } else if (kind == 'N') {
+                    allRotors.add(new FixedRotor(name, perm));
+                } else if (kind == 'R') {
+                    allRotors.add(new Reflector(name, perm));
+                } else {
+                    throw error("misnamed rotor");
+                }
+            }
+            return new Machine(alpha, numRotors, numPawls, allRotors);
+        } catch (EOFException excp) {
+            throw error("compiled configuration truncated");
+        } catch (IOException excp) {
+            throw error("could not read compiled configuration");
+        }
+    }
+
+    /** Write S to OUT as its length followed by its characters. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return a string written to IN by writeString. */
+    private static String readString(DataInputStream in)
+        throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > in.available() / Character.BYTES) {
+            throw new EOFException();
+        }
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    /** Machines parsed by load, without rotors inserted, keyed by file
+     *  path, size and modification time. */
+    private static final ConcurrentHashMap<String, Machine> TEMPLATES =
+        new ConcurrentHashMap<>();
+}
@@ -0,0 +1,66 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** The suite of all JUnit tests for ConfigCache.
+ *  @author Terrance Wang
+ */
+public class ConfigCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A small configuration in text form. */
+    private static final String CONFIG =
+        "A-Z 4 2\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** Return the conversion of MSG by M with rotors B Beta I II at
+     *  AXL and plugboard (AQ) (EP). */
+    private String run(Machine m, String msg) {
+        m.insertRotors(new String[] {"B", "Beta", "I", "II"});
+        m.setRotors("AXL");
+        m.setPlugboard(m.internPlugboard("(AQ) (EP)"));
+        return m.convert(msg);
+    }
+
+    @Test
+    public void checkCompiledRoundTrip() throws IOException {
+        Machine text = ConfigCache.parse(CONFIG.getBytes());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigCache.write(text, out);
+        Machine compiled = ConfigCache.parse(out.toByteArray());
+        assertEquals(text.numRotors(), compiled.numRotors());
+        assertEquals(text.numPawls(), compiled.numPawls());
+        assertEquals(text.getAllRotor().size(),
+                     compiled.getAllRotor().size());
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        assertEquals(run(text, msg), run(compiled, msg));
+        for (Rotor r : compiled.getAllRotor()) {
+            if (r.name().equals("I")) {
+                assertEquals("Q", ((MovingRotor) r).getNotches());
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTruncated() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigCache.write(ConfigCache.parse(CONFIG.getBytes()), out);
+        byte[] bytes = out.toByteArray();
+        ConfigCache.parse(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+}
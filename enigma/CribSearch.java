@@ -0,0 +1,319 @@
+package enigma;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext attack: given a crib, a fragment of plaintext
+ *  believed to occur in a message, finds the offsets where it could
+ *  occur and the rotor orders, settings and plugboard connections
+ *  consistent with it.
+ *
+ *  Since a reflector maps no character to itself, neither does the
+ *  machine, so offsets where some crib character lines up with the same
+ *  ciphertext character are discarded at once.  For each remaining
+ *  offset, the crib and the ciphertext beneath it form a menu: a graph
+ *  whose nodes are characters and whose edges, one per crib position T,
+ *  join the plain and cipher characters at T.  With plugboard P and
+ *  scrambler (rotors and reflector) S_T at position T, an edge from A to
+ *  B at T requires P(B) = S_T(P(A)).  For each connected component of
+ *  the menu, the search guesses P at its best-connected character and
+ *  follows the edges to deduce further connections.  A rotor state
+ *  survives only if every component has a guess that leads to no
+ *  contradiction, so most states are rejected without decrypting
+ *  anything.  Survivors are scored by decrypting the whole message with
+ *  the deduced plugboard connections.
+ *  @author Terrance Wang
+ */
+class CribSearch extends RotorSearch {
+
+    /** Print the best settings for a ciphertext containing a crib, as
+     *  specified by ARGS, where 3 <= ARGS.length <= 4.  ARGS[0] names a
+     *  configuration file, loaded through ConfigCache as by Main, ARGS[1]
+     *  a file of ciphertext, and ARGS[2] is the crib.  ARGS[3], if
+     *  present, is the number of candidates to report (default 10). */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3 || args.length > 4) {
+                throw error("usage: java enigma.CribSearch CONFIG "
+                            + "CIPHERTEXT CRIB [K]");
+            }
+            Machine machine = ConfigCache.load(args[0]);
+            int k = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            CribSearch search = new CribSearch(machine,
+                Scorer.indexOfCoincidence(machine.alphabet().size()), k);
+            for (Candidate c : search.search(read(args[1]), args[2])) {
+                System.out.printf("%12.6f  %s%n", c.score(), c);
+            }
+        } catch (IOException | NumberFormatException
+                 | EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A crib search over the rotors and plugboard of MACHINE, reporting
+     *  the best K decryptions consistent with the crib as judged by
+     *  SCORER. */
+    CribSearch(Machine machine, Scorer scorer, int k) {
+        super(machine, scorer, k);
+    }
+
+    /** Return the offsets in CIPHER at which CRIB could be the
+     *  plaintext, i.e., those at which no character of CRIB is opposite
+     *  the same character of CIPHER, provided that all reflectors of my
+     *  machine map no character to itself. */
+    List<Integer> offsets(int[] cipher, int[] crib) {
+        boolean selfFree = true;
+        for (Rotor r : machine().getAllRotor()) {
+            if (r.reflecting()) {
+                Permutation p = r.permutation();
+                for (int x = 0; x < p.size(); x += 1) {
+                    selfFree &= p.permute(x) != x;
+                }
+            }
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int off = 0; off + crib.length <= cipher.length; off += 1) {
+            boolean ok = true;
+            for (int i = 0; ok && selfFree && i < crib.length; i += 1) {
+                ok = crib[i] != cipher[off + i];
+            }
+            if (ok) {
+                result.add(off);
+            }
+        }
+        return result;
+    }
+
+    /** Return the best candidates for decrypting CIPHERTEXT under which
+     *  CRIB is the plaintext at some offset, best first.  Whitespace in
+     *  both is ignored.  The plugboard of each candidate holds only the
+     *  connections deduced from the crib. */
+    List<Candidate> search(String ciphertext, String crib) {
+        Alphabet alpha = machine().alphabet();
+        int[] cipher = encode(alpha, ciphertext);
+        _crib = encode(alpha, crib);
+        if (_crib.length == 0) {
+            throw error("empty crib");
+        }
+        _menus = new ArrayList<>();
+        for (int off : offsets(cipher, _crib)) {
+            _menus.add(new Menu(off, cipher, _crib, alpha.size()));
+        }
+        return super.search(ciphertext);
+    }
+
+    @Override
+    List<Candidate> search(String ciphertext) {
+        throw error("crib search needs a crib");
+    }
+
+    @Override
+    int bufferSize() {
+        int size = machine().alphabet().size();
+        return Math.max(cipher().length, (_crib.length + 2) * size);
+    }
+
+    @Override
+    void tryState(Machine m, String[] order, int[] setting, int[] buffer,
+                  PriorityQueue<Candidate> best) {
+        int size = m.alphabet().size();
+        for (Menu menu : _menus) {
+            m.setRotors(setting);
+            m.skip(menu._offset);
+            for (int t = 0; t < _crib.length; t += 1) {
+                m.advanceRotors();
+                m.scrambler(buffer, t * size);
+            }
+            boolean ok = true;
+            for (int i = 0; ok && i < menu._roots.length; i += 1) {
+                ok = firstGuess(menu, menu._roots[i], buffer, size) != -1;
+            }
+            if (ok) {
+                Permutation plugboard = deduce(menu, buffer, size);
+                Permutation old = m.plugboard();
+                m.setPlugboard(plugboard);
+                m.setRotors(setting);
+                double score = score(m, buffer);
+                m.setPlugboard(old);
+                offer(best, candidate(order, setting, plugboard, score));
+            }
+        }
+    }
+
+    /** Return the smallest character H such that guessing that ROOT is
+     *  connected to H on the plugboard leads to no contradiction in MENU,
+     *  or -1 if there is none.  BUFFER holds the scrambler at each crib
+     *  position, followed by space for the deduced connections and a
+     *  work queue; on success, the deduced connections are left in
+     *  BUFFER. */
+    private int firstGuess(Menu menu, int root, int[] buffer, int size) {
+        for (int h = 0; h < size; h += 1) {
+            if (propagate(menu, root, h, buffer, size)) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    /** Return true iff assuming plugboard connection ROOT-H leads to no
+     *  contradiction in MENU.  Uses BUFFER as for firstGuess. */
+    private boolean propagate(Menu menu, int root, int h, int[] buffer,
+                              int size) {
+        int plug = _crib.length * size, queue = plug + size;
+        Arrays.fill(buffer, plug, queue, -1);
+        int head = queue, tail = queue;
+        buffer[plug + root] = h;
+        buffer[plug + h] = root;
+        buffer[tail++] = root;
+        if (h != root) {
+            buffer[tail++] = h;
+        }
+        while (head < tail) {
+            int x = buffer[head++];
+            for (int e = menu._start[x]; e < menu._start[x + 1]; e += 1) {
+                int y = menu._other[e];
+                int v = buffer[menu._position[e] * size + buffer[plug + x]];
+                int py = buffer[plug + y], pv = buffer[plug + v];
+                if (py == -1 && pv == -1) {
+                    buffer[plug + y] = v;
+                    buffer[plug + v] = y;
+                    buffer[tail++] = y;
+                    if (v != y) {
+                        buffer[tail++] = v;
+                    }
+                } else if (py != v) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Return a plugboard holding the connections deduced for each
+     *  component of MENU from its first consistent guess, leaving out
+     *  those that clash with connections already taken from larger
+     *  components.  BUFFER is as for firstGuess. */
+    private Permutation deduce(Menu menu, int[] buffer, int size) {
+        Alphabet alpha = machine().alphabet();
+        int plug = _crib.length * size;
+        int[] taken = new int[size];
+        Arrays.fill(taken, -1);
+        for (int root : menu._roots) {
+            firstGuess(menu, root, buffer, size);
+            boolean clash = false;
+            for (int x = 0; x < size; x += 1) {
+                int p = buffer[plug + x];
+                clash |= p != -1 && taken[x] != -1 && taken[x] != p;
+            }
+            for (int x = 0; !clash && x < size; x += 1) {
+                if (buffer[plug + x] != -1) {
+                    taken[x] = buffer[plug + x];
+                }
+            }
+        }
+        StringBuilder cycles = new StringBuilder();
+        for (int x = 0; x < size; x += 1) {
+            if (taken[x] > x) {
+                cycles.append('(').append(alpha.toChar(x))
+                    .append(alpha.toChar(taken[x])).append(')');
+            }
+        }
+        return new Permutation(cycles.toString(), alpha);
+    }
+
+    /** The menu for one offset of the crib, with edges stored by
+     *  character: the edges of character X are numbers _start[X] up to
+     *  _start[X + 1], and edge E joins X to _other[E] at crib position
+     *  _position[E]. */
+    private static class Menu {
+        /** The menu for CRIB placed at offset OFFSET in CIPHER, in an
+         *  alphabet of SIZE characters. */
+        Menu(int offset, int[] cipher, int[] crib, int size) {
+            _offset = offset;
+            _start = new int[size + 1];
+            for (int t = 0; t < crib.length; t += 1) {
+                _start[crib[t] + 1] += 1;
+                _start[cipher[offset + t] + 1] += 1;
+            }
+            for (int x = 0; x < size; x += 1) {
+                _start[x + 1] += _start[x];
+            }
+            _other = new int[2 * crib.length];
+            _position = new int[2 * crib.length];
+            int[] fill = Arrays.copyOf(_start, size);
+            for (int t = 0; t < crib.length; t += 1) {
+                int a = crib[t], b = cipher[offset + t];
+                _other[fill[a]] = b;
+                _position[fill[a]++] = t;
+                _other[fill[b]] = a;
+                _position[fill[b]++] = t;
+            }
+            _roots = roots(size);
+        }
+
+        /** Return the best-connected character of each connected
+         *  component of this menu in an alphabet of SIZE characters,
+         *  largest component first. */
+        private int[] roots(int size) {
+            int[] component = new int[size];
+            Arrays.fill(component, -1);
+            ArrayList<int[]> found = new ArrayList<>();
+            int[] stack = new int[size];
+            for (int s = 0; s < size; s += 1) {
+                if (component[s] != -1 || _start[s] == _start[s + 1]) {
+                    continue;
+                }
+                int root = s, members = 0, top = 0;
+                component[s] = s;
+                stack[top++] = s;
+                while (top > 0) {
+                    int x = stack[--top];
+                    members += 1;
+                    if (degree(x) > degree(root)) {
+                        root = x;
+                    }
+                    for (int e = _start[x]; e < _start[x + 1]; e += 1) {
+                        if (component[_other[e]] == -1) {
+                            component[_other[e]] = s;
+                            stack[top++] = _other[e];
+                        }
+                    }
+                }
+                found.add(new int[] { members, root });
+            }
+            found.sort((p, q) -> q[0] - p[0]);
+            int[] result = new int[found.size()];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = found.get(i)[1];
+            }
+            return result;
+        }
+
+        /** Return the number of edges at character X. */
+        private int degree(int x) {
+            return _start[x + 1] - _start[x];
+        }
+
+        /** Offset of the crib in the ciphertext. */
+        private final int _offset;
+        /** Index of the first edge of each character. */
+        private final int[] _start;
+        /** Character at the other end of each edge. */
+        private final int[] _other;
+        /** Crib position of each edge. */
+        private final int[] _position;
+        /** Character at which to guess in each component. */
+        private final int[] _roots;
+    }
+
+    /** The crib, as alphabet indices. */
+    private int[] _crib;
+    /** Menus for the offsets at which the crib may occur. */
+    private List<Menu> _menus;
+}
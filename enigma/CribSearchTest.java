@@ -0,0 +1,60 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import static enigma.RotorSearchTest.*;
+
+/** The suite of all JUnit tests for CribSearch.
+ *  @author Terrance Wang
+ */
+public class CribSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    @Test
+    public void checkOffsets() {
+        Machine m = smallMachine();
+        CribSearch search = new CribSearch(m,
+            Scorer.indexOfCoincidence(26), 1);
+        Alphabet alpha = m.alphabet();
+        int[] cipher = RotorSearch.encode(alpha, "ABCDE");
+        int[] crib = RotorSearch.encode(alpha, "BC");
+        List<Integer> offsets = search.offsets(cipher, crib);
+        assertFalse(offsets.contains(1));
+        assertEquals(3, offsets.size());
+    }
+
+    @Test
+    public void checkRecoversPlugboard() {
+        Machine m = smallMachine();
+        m.insertRotors(new String[] {"B", "III", "I"});
+        m.setPlugboard(new Permutation("(AQ) (EL) (TZ)", m.alphabet()));
+        m.setRotors("DM");
+        String cipher = m.convert(PLAIN);
+        m.setPlugboard(null);
+        CribSearch search =
+            new CribSearch(m, Scorer.indexOfCoincidence(26), 1);
+        List<Candidate> best = search.search(cipher, PLAIN.substring(0, 40));
+        assertEquals(1, best.size());
+        Candidate c = best.get(0);
+        assertEquals("B III I DM", c.toString().substring(2, 12));
+        m.insertRotors(new String[] {"B", "III", "I"});
+        m.setRotors("DM");
+        m.setPlugboard(c.plugboard());
+        assertEquals(PLAIN, m.convert(cipher));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkEmptyCrib() {
+        new CribSearch(smallMachine(), Scorer.indexOfCoincidence(26), 1)
+            .search("ABC", " ");
+    }
+
+}
@@ -0,0 +1,550 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Differential tests of the table-driven, cached, skipping, batched,
+ *  byte and parallel conversion paths of Machine against Reference, a direct
+ *  model of the Enigma that works on characters and cycle strings as
+ *  the original implementation did.  Each case is a random alphabet
+ *  (a CharacterRange or an ExtendedCharacterRange, sometimes larger than
+ *  Rotor.SQUARE_TABLE_LIMIT), random rotors, notches, settings,
+ *  plugboard and message.  Every path must agree with Reference,
+ *  decrypting the output must give back the message, and when the
+ *  reflector has no fixed points no character may encode to itself.
+ *  Run main to time Reference against Machine.
+ *  @author Terrance Wang
+ */
+public class DifferentialTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /** Characters usable in an ExtendedCharacterRange: none is blank,
+     *  a parenthesis, an asterisk or a lower-case letter. */
+    private static final String POOL;
+    static {
+        StringBuilder pool = new StringBuilder();
+        for (char c = '!'; c <= '`'; c += 1) {
+            if (c != '(' && c != ')' && c != '*') {
+                pool.append(c);
+            }
+        }
+        for (char c = '\u4e00'; c < '\u4e00' + 400; c += 1) {
+            pool.append(c);
+        }
+        POOL = pool.toString();
+    }
+
+    /** A random machine configuration and message. */
+    static final class Case {
+
+        /** A random case drawn from RANDOM with a message of about
+         *  LENGTH characters. */
+        Case(Random random, int length) {
+            int n;
+            if (random.nextInt(3) == 0) {
+                n = 2 + random.nextInt(40);
+                char first = random.nextBoolean() ? 'A' : '0';
+                n = first == 'A' ? Math.min(n, 26) : n;
+                _alphabet = new CharacterRange(first, (char) (first + n - 1));
+                _chars = range(first, n);
+            } else {
+                n = random.nextInt(6) == 0
+                    ? Rotor.SQUARE_TABLE_LIMIT + 1 + random.nextInt(200)
+                    : 2 + random.nextInt(60);
+                List<Character> pool = new ArrayList<>();
+                for (int k = 0; k < POOL.length(); k += 1) {
+                    pool.add(POOL.charAt(k));
+                }
+                Collections.shuffle(pool, random);
+                StringBuilder chars = new StringBuilder();
+                for (int k = 0; k < n; k += 1) {
+                    chars.append(pool.get(k));
+                }
+                _chars = chars.toString();
+                _alphabet = new ExtendedCharacterRange(_chars);
+            }
+            int slots = 2 + random.nextInt(6);
+            _pawls = 1 + random.nextInt(slots - 1);
+            _cycles = new String[slots];
+            _notches = new String[slots];
+            _cycles[0] = reflection(random);
+            for (int k = 1; k < slots; k += 1) {
+                _cycles[k] = cycles(random);
+                if (k >= slots - _pawls) {
+                    _notches[k] = notches(random);
+                }
+            }
+            vary(random, length);
+        }
+
+        /** A case with the configuration of C and message MESSAGE. */
+        private Case(Case c, String message) {
+            _alphabet = c._alphabet;
+            _chars = c._chars;
+            _pawls = c._pawls;
+            _cycles = c._cycles;
+            _notches = c._notches;
+            _setting = c._setting;
+            _plugboard = c._plugboard;
+            _message = message;
+        }
+
+        /** Return a case with my message replaced by MESSAGE. */
+        Case withMessage(String message) {
+            return new Case(this, message);
+        }
+
+        /** Return a case with my rotors, but with settings, plugboard
+         *  and a message of about LENGTH characters drawn from
+         *  RANDOM. */
+        Case variant(Random random, int length) {
+            Case result = new Case(this, null);
+            result.vary(random, length);
+            return result;
+        }
+
+        /** Choose my settings, plugboard and a message of about LENGTH
+         *  characters from RANDOM. */
+        private void vary(Random random, int length) {
+            int n = _chars.length();
+            StringBuilder setting = new StringBuilder();
+            for (int k = 1; k < _cycles.length; k += 1) {
+                setting.append(_chars.charAt(random.nextInt(n)));
+            }
+            _setting = setting.toString();
+            _plugboard = random.nextInt(4) == 0 ? null : plugboard(random);
+            StringBuilder message = new StringBuilder();
+            int len = random.nextInt(length + 1);
+            for (int k = 0; k < len; k += 1) {
+                message.append(random.nextInt(10) == 0 ? ' '
+                               : _chars.charAt(random.nextInt(n)));
+            }
+            _message = message.toString();
+        }
+
+        /** Return the N characters starting at FIRST. */
+        private static String range(char first, int n) {
+            StringBuilder result = new StringBuilder();
+            for (int k = 0; k < n; k += 1) {
+                result.append((char) (first + k));
+            }
+            return result.toString();
+        }
+
+        /** Return my alphabet's characters in RANDOM order. */
+        private String shuffled(Random random) {
+            List<Character> chars = new ArrayList<>();
+            for (int k = 0; k < _chars.length(); k += 1) {
+                chars.add(_chars.charAt(k));
+            }
+            Collections.shuffle(chars, random);
+            StringBuilder result = new StringBuilder();
+            for (char c : chars) {
+                result.append(c);
+            }
+            return result.toString();
+        }
+
+        /** Return the cycles of a random permutation of my alphabet,
+         *  sometimes writing fixed points as one-character cycles. */
+        private String cycles(Random random) {
+            String order = shuffled(random);
+            StringBuilder result = new StringBuilder();
+            int k = 0;
+            while (k < order.length()) {
+                int len = 1 + random.nextInt(order.length() - k);
+                if (len > 1 || random.nextBoolean()) {
+                    result.append('(')
+                        .append(order, k, k + len).append(") ");
+                }
+                k += len;
+            }
+            return result.toString();
+        }
+
+        /** Return the cycles of a random involution of my alphabet with
+         *  at most one fixed point. */
+        private String reflection(Random random) {
+            String order = shuffled(random);
+            StringBuilder result = new StringBuilder();
+            for (int k = 0; k + 1 < order.length(); k += 2) {
+                result.append('(').append(order, k, k + 2).append(')');
+            }
+            return result.toString();
+        }
+
+        /** Return random plugboard cycles. */
+        private String plugboard(Random random) {
+            String order = shuffled(random);
+            int pairs = random.nextInt(order.length() / 2 + 1);
+            StringBuilder result = new StringBuilder();
+            for (int k = 0; k < pairs; k += 1) {
+                result.append('(').append(order, 2 * k, 2 * k + 2)
+                    .append(") ");
+            }
+            return result.toString();
+        }
+
+        /** Return random notches: sometimes none, sometimes all. */
+        private String notches(Random random) {
+            switch (random.nextInt(6)) {
+            case 0:
+                return "";
+            case 1:
+                return _chars;
+            default:
+                String order = shuffled(random);
+                int count = Math.min(order.length(), 1 + random.nextInt(3));
+                return order.substring(0, count);
+            }
+        }
+
+        /** Return the name of the rotor in slot K. */
+        private static String name(int k) {
+            return "R" + k;
+        }
+
+        /** Return a machine set up as I describe, with a spare rotor
+         *  among its available rotors. */
+        Machine machine() {
+            List<Rotor> all = new ArrayList<>();
+            all.add(new MovingRotor("SPARE",
+                    new Permutation(_cycles[1], _alphabet), _chars));
+            String[] names = new String[_cycles.length];
+            for (int k = 0; k < _cycles.length; k += 1) {
+                names[k] = name(k);
+                Permutation perm = new Permutation(_cycles[k], _alphabet);
+                if (k == 0) {
+                    all.add(new Reflector(names[k], perm));
+                } else if (_notches[k] == null) {
+                    all.add(new FixedRotor(names[k], perm));
+                } else {
+                    all.add(new MovingRotor(names[k], perm, _notches[k]));
+                }
+            }
+            Collections.reverse(all);
+            Machine result =
+                new Machine(_alphabet, _cycles.length, _pawls, all);
+            result.insertRotors(names);
+            result.setRotors(_setting);
+            if (_plugboard != null) {
+                result.setPlugboard(new Permutation(_plugboard, _alphabet));
+            }
+            return result;
+        }
+
+        /** Return a Reference set up as I describe. */
+        Reference reference() {
+            return new Reference(this);
+        }
+
+        /** Return true iff my reflector has no fixed points. */
+        boolean derangement() {
+            return _chars.length() % 2 == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("alphabet %s, pawls %d, rotors %s, "
+                                 + "notches %s, setting %s, plugboard %s",
+                                 _chars, _pawls,
+                                 String.join(" | ", _cycles),
+                                 Arrays.toString(_notches),
+                                 _setting, _plugboard);
+        }
+
+        /** My alphabet. */
+        private final Alphabet _alphabet;
+        /** The characters of _alphabet, in order. */
+        private final String _chars;
+        /** Number of pawls. */
+        private final int _pawls;
+        /** The cycles of the rotor in each slot, reflector first. */
+        private final String[] _cycles;
+        /** The notches of the rotor in each slot, or null if it does
+         *  not move. */
+        private final String[] _notches;
+        /** Initial settings of the non-reflecting rotors. */
+        private String _setting;
+        /** Plugboard cycles, or null for none. */
+        private String _plugboard;
+        /** Message, with blanks. */
+        private String _message;
+    }
+
+    /** An Enigma machine simulated one character at a time by searching
+     *  cycle strings, with no tables. */
+    static final class Reference {
+
+        /** A machine set up as described by C. */
+        Reference(Case c) {
+            _chars = c._chars;
+            _cycles = c._cycles;
+            _notches = c._notches;
+            _pawls = c._pawls;
+            _plugboard = c._plugboard == null ? "" : c._plugboard;
+            _settings = new int[_cycles.length];
+            for (int k = 1; k < _cycles.length; k += 1) {
+                _settings[k] = _chars.indexOf(c._setting.charAt(k - 1));
+            }
+        }
+
+        /** Return the image of CH under CYCLES. */
+        static char permute(String cycles, char ch) {
+            int k = cycles.indexOf(ch);
+            if (k < 0) {
+                return ch;
+            } else if (cycles.charAt(k + 1) == ')') {
+                return cycles.charAt(cycles.lastIndexOf('(', k) + 1);
+            }
+            return cycles.charAt(k + 1);
+        }
+
+        /** Return the preimage of CH under CYCLES. */
+        static char invert(String cycles, char ch) {
+            int k = cycles.indexOf(ch);
+            if (k < 0) {
+                return ch;
+            } else if (cycles.charAt(k - 1) == '(') {
+                return cycles.charAt(cycles.indexOf(')', k) - 1);
+            }
+            return cycles.charAt(k - 1);
+        }
+
+        /** Return the character D places after CH in my alphabet. */
+        private char shift(char ch, int d) {
+            int n = _chars.length();
+            return _chars.charAt(Math.floorMod(_chars.indexOf(ch) + d, n));
+        }
+
+        /** Return true iff the rotor in slot K is at a notch. */
+        private boolean atNotch(int k) {
+            return _notches[k].indexOf(_chars.charAt(_settings[k])) >= 0;
+        }
+
+        /** Step the rotors for one keystroke. */
+        private void step() {
+            int n = _cycles.length, first = n - _pawls;
+            boolean[] advance = new boolean[n];
+            for (int k = first; k < n; k += 1) {
+                advance[k] = k == n - 1 || atNotch(k + 1)
+                    || (k > first && atNotch(k));
+            }
+            for (int k = first; k < n; k += 1) {
+                if (advance[k]) {
+                    _settings[k] = (_settings[k] + 1) % _chars.length();
+                }
+            }
+        }
+
+        /** Return the encoding of CH, after stepping. */
+        char convert(char ch) {
+            step();
+            ch = permute(_plugboard, ch);
+            for (int k = _cycles.length - 1; k >= 0; k -= 1) {
+                int s = _settings[k];
+                ch = shift(permute(_cycles[k], shift(ch, s)), -s);
+            }
+            for (int k = 1; k < _cycles.length; k += 1) {
+                int s = _settings[k];
+                ch = shift(invert(_cycles[k], shift(ch, s)), -s);
+            }
+            return invert(_plugboard, ch);
+        }
+
+        /** Return the encoding of MSG, skipping blanks. */
+        String convert(String msg) {
+            StringBuilder result = new StringBuilder();
+            for (int k = 0; k < msg.length(); k += 1) {
+                if (msg.charAt(k) != ' ') {
+                    result.append(convert(msg.charAt(k)));
+                }
+            }
+            return result.toString();
+        }
+
+        /** The characters of my alphabet. */
+        private final String _chars;
+        /** Cycles of each slot's rotor, reflector first. */
+        private final String[] _cycles;
+        /** Notches of each slot's rotor, or null. */
+        private final String[] _notches;
+        /** Number of pawls. */
+        private final int _pawls;
+        /** Plugboard cycles. */
+        private final String _plugboard;
+        /** Current setting of each slot's rotor. */
+        private final int[] _settings;
+    }
+
+    /** Return MSG without blanks. */
+    private static String strip(String msg) {
+        return msg.replace(" ", "");
+    }
+
+    /** Check every property for C. */
+    private void check(Case c) {
+        String what = c.toString();
+        String plain = strip(c._message);
+        String expected = c.reference().convert(c._message);
+
+        assertEquals(what, expected, c.machine().convert(c._message));
+        Machine cached = c.machine();
+        cached.setCompositeCache(64);
+        assertEquals(what, expected, cached.convert(c._message));
+        assertEquals(what, expected,
+                     c.machine().convertParallel(c._message));
+        int skip = plain.length() / 3;
+        Machine skipped = c.machine();
+        skipped.skip(skip);
+        assertEquals(what, expected.substring(skip),
+                     skipped.convert(plain.substring(skip)));
+
+        if (ByteAlphabet.of(c._alphabet) != null) {
+            byte[] in = c._message.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] out = new byte[in.length];
+            int len = c.machine().convert(in, 0, in.length, out, 0);
+            assertEquals(what, expected,
+                         new String(out, 0, len,
+                                    StandardCharsets.ISO_8859_1));
+        }
+
+        assertEquals(what, plain, c.machine().convert(expected));
+        if (c.derangement()) {
+            for (int k = 0; k < plain.length(); k += 1) {
+                assertTrue(what, plain.charAt(k) != expected.charAt(k));
+            }
+        }
+    }
+
+    @Test
+    public void checkRandomCases() {
+        Random random = new Random(21);
+        for (int k = 0; k < 400; k += 1) {
+            check(new Case(random, 600));
+        }
+    }
+
+    @Test
+    public void checkLongMessages() {
+        Random random = new Random(121);
+        for (int k = 0; k < 3; k += 1) {
+            Case c = new Case(random, 1);
+            StringBuilder message = new StringBuilder();
+            while (message.length() < 3 * Machine.PARALLEL_CHUNK) {
+                message.append(c._chars);
+                message.append(' ');
+            }
+            check(c.withMessage(message.toString()));
+        }
+    }
+
+    /** Check that a machine with a generated converter for C agrees
+     *  with Reference, when converting C's message in two parts. */
+    private void checkSpecialized(Case c) {
+        String what = c.toString();
+        String plain = strip(c._message);
+        String expected = c.reference().convert(c._message);
+        Machine specialized = c.machine();
+        specialized.setSpecialize(true);
+        int half = plain.length() / 2;
+        assertEquals(what, expected,
+                     specialized.convert(plain.substring(0, half))
+                     + specialized.convert(plain.substring(half)));
+    }
+
+    @Test
+    public void checkSpecialized() {
+        Random random = new Random(2021);
+        for (int k = 0; k < 16; k += 1) {
+            Case c = new Case(random, 2000);
+            checkSpecialized(c);
+            for (int j = 0; j < 4; j += 1) {
+                checkSpecialized(c.variant(random, 2000));
+            }
+        }
+    }
+
+    @Test
+    public void checkBatches() {
+        Random random = new Random(1021);
+        for (int k = 0; k < 40; k += 1) {
+            Case c = new Case(random, 300);
+            Alphabet alpha = c._alphabet;
+            int lanes = 1 + random.nextInt(20);
+            int[][] settings = new int[lanes][c._cycles.length - 1];
+            Permutation[] plugboards = new Permutation[lanes];
+            int[][] messages = new int[lanes][];
+            String[] expected = new String[lanes];
+            for (int j = 0; j < lanes; j += 1) {
+                Case lane = c.variant(random, 300);
+                for (int i = 0; i < settings[j].length; i += 1) {
+                    settings[j][i] = alpha.toInt(lane._setting.charAt(i));
+                }
+                plugboards[j] = lane._plugboard == null ? null
+                    : new Permutation(lane._plugboard, alpha);
+                String plain = strip(lane._message);
+                messages[j] = new int[plain.length()];
+                for (int i = 0; i < plain.length(); i += 1) {
+                    messages[j][i] = alpha.toInt(plain.charAt(i));
+                }
+                expected[j] = lane.reference().convert(plain);
+            }
+            c.machine().convertBatch(settings, plugboards, messages);
+            for (int j = 0; j < lanes; j += 1) {
+                StringBuilder got = new StringBuilder();
+                for (int x : messages[j]) {
+                    got.append(alpha.toChar(x));
+                }
+                assertEquals(c.toString(), expected[j], got.toString());
+            }
+        }
+    }
+
+    /** Time Reference and Machine.convert on ARGS[0] (default 200)
+     *  random cases with messages of up to ARGS[1] (default 20000)
+     *  characters, using seed ARGS[2] (default 0), checking that they
+     *  agree. */
+    public static void main(String... args) {
+        int cases = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Random random = new Random(args.length > 2
+                                   ? Long.parseLong(args[2]) : 0);
+        long refNanos, fastNanos, chars;
+        refNanos = fastNanos = chars = 0;
+        for (int k = 0; k < cases; k += 1) {
+            Case c = new Case(random, length);
+            Reference ref = c.reference();
+            Machine m = c.machine();
+            long start = System.nanoTime();
+            String expected = ref.convert(c._message);
+            long mid = System.nanoTime();
+            String result = m.convert(c._message);
+            long end = System.nanoTime();
+            if (!expected.equals(result)) {
+                System.out.printf("MISMATCH: %s%n", c);
+                System.exit(1);
+            }
+            refNanos += mid - start;
+            fastNanos += end - mid;
+            chars += expected.length();
+        }
+        System.out.printf("%d cases, %d characters%n", cases, chars);
+        System.out.printf("reference %10.1f ms %10.1f ns/char%n",
+                          refNanos / 1e6, (double) refNanos / chars);
+        System.out.printf("machine   %10.1f ms %10.1f ns/char%n",
+                          fastNanos / 1e6, (double) fastNanos / chars);
+    }
+}
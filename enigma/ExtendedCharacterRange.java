@@ -1,5 +1,9 @@
 package enigma;
 
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
 /** Alphabet consisting of values in the string _VALS.*/
 /** @author Terrance Wang */
 public class ExtendedCharacterRange extends Alphabet {
@@ -7,9 +11,68 @@ public class ExtendedCharacterRange extends Alphabet {
     /** Stores the values in the alphabet.*/
     private String _vals;
 
+    /** Largest span of character codes, relative to the alphabet size,
+     *  for which a dense lookup table is used instead of a hash table. */
+    private static final int DENSE_SPREAD = 8;
+
+    /** Smallest character code in the alphabet. */
+    private char _min;
+
+    /** If the alphabet's characters are close enough together, entry
+     *  C - _min is the index of character C, or -1.  Otherwise null. */
+    private int[] _dense;
+
+    /** Otherwise, an open-addressed hash table whose entries hold
+     *  characters, with corresponding indices in _hashIndex (-1 marks an
+     *  empty entry). */
+    private char[] _hashKeys;
+
+    /** Index of each character in _hashKeys, or -1. */
+    private int[] _hashIndex;
+
     /** Construct and alphabet with values in VALS.*/
     ExtendedCharacterRange(String vals) {
         _vals = vals;
+        char min = Character.MAX_VALUE, max = Character.MIN_VALUE;
+        for (int i = 0; i < vals.length(); i += 1) {
+            min = (char) Math.min(min, vals.charAt(i));
+            max = (char) Math.max(max, vals.charAt(i));
+        }
+        _min = min;
+        int span = vals.isEmpty() ? 0 : max - min + 1;
+        if (span <= Math.max(256, DENSE_SPREAD * vals.length())) {
+            _dense = new int[span];
+            Arrays.fill(_dense, -1);
+        } else {
+            int capacity = Integer.highestOneBit(2 * vals.length()) * 2;
+            _hashKeys = new char[capacity];
+            _hashIndex = new int[capacity];
+            Arrays.fill(_hashIndex, -1);
+        }
+        for (int i = 0; i < vals.length(); i += 1) {
+            char ch = vals.charAt(i);
+            if (toInt(ch) != -1) {
+                throw error("duplicate character '%c' in alphabet", ch);
+            }
+            if (_dense != null) {
+                _dense[ch - _min] = i;
+            } else {
+                int h = slot(ch);
+                _hashKeys[h] = ch;
+                _hashIndex[h] = i;
+            }
+        }
+    }
+
+    /** Return the entry of _hashKeys that holds CH, or the empty entry
+     *  where it would go. */
+    private int slot(char ch) {
+        int mask = _hashKeys.length - 1;
+        int h = (ch * 0x9E3779B1 >>> 14) & mask;
+        while (_hashIndex[h] != -1 && _hashKeys[h] != ch) {
+            h = (h + 1) & mask;
+        }
+        return h;
     }
 
     /** Returns the size of your alphabet.*/
@@ -19,7 +82,7 @@ public class ExtendedCharacterRange extends Alphabet {
 
     /** Returns whether the alphabet has CH.*/
     boolean contains(char ch) {
-        return _vals.contains(Character.toString(ch));
+        return toInt(ch) != -1;
     }
 
     /** Returns the char at index IND.*/
@@ -27,8 +90,13 @@ public class ExtendedCharacterRange extends Alphabet {
         return _vals.charAt(ind);
     }
 
-    /** Returns the index of the char CH.*/
+    /** Returns the index of the char CH, or -1 if it is not in the
+     *  alphabet.*/
     int toInt(char ch) {
-        return _vals.indexOf(Character.toString(ch));
+        if (_dense != null) {
+            int k = ch - _min;
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        return _hashIndex[slot(ch)];
     }
 }
@@ -0,0 +1,494 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A key sheet: a numbered list of settings for one configuration, each
+ *  a rotor order, rotor settings and plugboard pairs, as on a settings
+ *  line.  Sheets are generated at random or read from settings lines,
+ *  and every entry is checked as it is added: a reflector, then
+ *  non-moving rotors, then one moving rotor per pawl, no rotor used
+ *  twice, settings in the alphabet and disjoint plugboard pairs.  Rotor
+ *  names are looked up through the hash index of the machine
+ *  (Machine.rotorIndex) rather than by scanning its rotors, and entries
+ *  are kept as indices, so no settings text is parsed or built.
+ *
+ *  In binary form, which Main loads directly (see --sheet), a sheet
+ *  holds, in the format of DataOutputStream: the int MAGIC, the int
+ *  VERSION, the alphabet size, numRotors and numPawls of its
+ *  configuration, the number of rotor names followed by the names (as
+ *  in ConfigCache), and the number of entries followed by each entry:
+ *  the positions among those names of its rotors, reflector first, the
+ *  settings of its non-reflecting rotors as alphabet indices, the number
+ *  of plugboard pairs and the indices of the characters of each pair.
+ *  The positions and indices in entries are single bytes when there are
+ *  at most 256 names and characters, and chars otherwise.
+ *  @author Terrance Wang
+ */
+final class KeySheet {
+
+    /** First int of a binary key sheet ("Keys"). */
+    static final int MAGIC = 0x4b657973;
+    /** Version of the binary format. */
+    static final int VERSION = 1;
+
+    /** Write key sheets or check them, as specified by ARGS: either
+     *  "generate CONFIG COUNT PAIRS SHEET [SEED]", which writes a sheet
+     *  of COUNT random entries with PAIRS plugboard pairs each for the
+     *  configuration in the file CONFIG to the file SHEET; "compile
+     *  CONFIG LINES SHEET", which checks the settings lines in the file
+     *  LINES, reports each bad one and, if there are none, writes them
+     *  to SHEET; or "print CONFIG SHEET", which prints the entries of
+     *  SHEET as settings lines. */
+    public static void main(String... args) {
+        try {
+            if ((args.length == 5 || args.length == 6)
+                && args[0].equals("generate")) {
+                Random random = args.length == 6
+                    ? new Random(Long.parseLong(args[5])) : new Random();
+                generate(ConfigCache.load(args[1]),
+                         Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                         random).write(args[4]);
+            } else if (args.length == 4 && args[0].equals("compile")) {
+                KeySheet sheet = new KeySheet(ConfigCache.load(args[1]));
+                List<String> errors =
+                    sheet.addAll(Files.readAllLines(Paths.get(args[2])));
+                for (String msg : errors) {
+                    System.err.printf("Error: %s%n", msg);
+                }
+                if (!errors.isEmpty()) {
+                    System.exit(1);
+                }
+                sheet.write(args[3]);
+            } else if (args.length == 3 && args[0].equals("print")) {
+                KeySheet sheet = load(ConfigCache.load(args[1]), args[2]);
+                for (int k = 1; k <= sheet.size(); k += 1) {
+                    System.out.println(sheet.settingsLine(k));
+                }
+            } else {
+                throw error("usage: java enigma.KeySheet generate CONFIG "
+                            + "COUNT PAIRS SHEET [SEED] | compile CONFIG "
+                            + "LINES SHEET | print CONFIG SHEET");
+            }
+        } catch (IOException | NumberFormatException
+                 | EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** An empty key sheet for the configuration of MACHINE, whose
+     *  rotors need not be inserted. */
+    KeySheet(Machine machine) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _numRotors = machine.numRotors();
+        _first = _numRotors - machine.numPawls();
+    }
+
+    /** Return a key sheet of COUNT entries for the configuration of
+     *  MACHINE, each with a rotor order, settings and PAIRS plugboard
+     *  pairs drawn from RANDOM. */
+    static KeySheet generate(Machine machine, int count, int pairs,
+                             Random random) {
+        KeySheet sheet = new KeySheet(machine);
+        int size = sheet._alphabet.size(), n = sheet._numRotors;
+        ArrayList<Integer> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (int k = 0; k < machine.getAllRotor().size(); k += 1) {
+            Rotor r = machine.availableRotor(k);
+            if (machine.rotorIndex(r.name()) != k) {
+                continue;
+            }
+            if (r.reflecting()) {
+                reflectors.add(k);
+            } else if (r.rotates()) {
+                moving.add(k);
+            } else {
+                fixed.add(k);
+            }
+        }
+        if (count < 0 || pairs < 0 || 2 * pairs > size) {
+            throw error("bad key sheet size");
+        }
+        if (reflectors.isEmpty() || fixed.size() < sheet._first - 1
+            || moving.size() < n - sheet._first) {
+            throw error("configuration has too few rotors for a key sheet");
+        }
+        int[] chars = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            chars[i] = i;
+        }
+        for (int e = 0; e < count; e += 1) {
+            int[] entry = new int[2 * n - 1 + 2 * pairs];
+            entry[0] = reflectors.get(random.nextInt(reflectors.size()));
+            choose(fixed, entry, 1, sheet._first - 1, random);
+            choose(moving, entry, sheet._first, n - sheet._first, random);
+            for (int i = n; i < 2 * n - 1; i += 1) {
+                entry[i] = random.nextInt(size);
+            }
+            for (int i = 0; i < 2 * pairs; i += 1) {
+                int j = i + random.nextInt(size - i);
+                int t = chars[i];
+                chars[i] = chars[j];
+                chars[j] = t;
+                entry[2 * n - 1 + i] = chars[i];
+            }
+            sheet.add(entry);
+        }
+        return sheet;
+    }
+
+    /** Store COUNT distinct members of POOL, chosen with RANDOM, in
+     *  ENTRY starting at START.  POOL is reordered. */
+    private static void choose(ArrayList<Integer> pool, int[] entry,
+                               int start, int count, Random random) {
+        for (int i = 0; i < count; i += 1) {
+            int j = i + random.nextInt(pool.size() - i);
+            Integer t = pool.get(i);
+            pool.set(i, pool.get(j));
+            pool.set(j, t);
+            entry[start + i] = pool.get(i);
+        }
+    }
+
+    /** Return the key sheet in the file named NAME, in binary form, for
+     *  the configuration of MACHINE. */
+    static KeySheet load(Machine machine, String name) {
+        try {
+            return read(machine, Files.readAllBytes(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the key sheet in CONTENTS, in binary form, for the
+     *  configuration of MACHINE, checking each entry. */
+    static KeySheet read(Machine machine, byte[] contents) {
+        KeySheet sheet = new KeySheet(machine);
+        DataInputStream data =
+            new DataInputStream(new ByteArrayInputStream(contents));
+        try {
+            if (data.readInt() != MAGIC) {
+                throw error("not a key sheet");
+            }
+            if (data.readInt() != VERSION) {
+                throw error("unsupported key sheet version");
+            }
+            if (data.readInt() != sheet._alphabet.size()
+                || data.readInt() != sheet._numRotors
+                || data.readInt() != machine.numPawls()) {
+                throw error("key sheet is for another configuration");
+            }
+            int[] rotors = new int[data.readInt()];
+            for (int k = 0; k < rotors.length; k += 1) {
+                String name = readString(data);
+                rotors[k] = machine.rotorIndex(name);
+                if (rotors[k] < 0) {
+                    throw error("key sheet rotor %s not in machine", name);
+                }
+            }
+            boolean wide = wide(rotors.length, sheet._alphabet.size());
+            int count = data.readInt(), n = sheet._numRotors;
+            for (int e = 0; e < count; e += 1) {
+                int[] head = new int[2 * n];
+                for (int i = 0; i < head.length; i += 1) {
+                    head[i] = readIndex(data, wide);
+                }
+                int pairs = head[2 * n - 1];
+                int[] entry = new int[2 * n - 1 + 2 * pairs];
+                System.arraycopy(head, 0, entry, 0, 2 * n - 1);
+                for (int i = 0; i < n; i += 1) {
+                    if (entry[i] >= rotors.length) {
+                        throw error("bad rotor in key sheet");
+                    }
+                    entry[i] = rotors[entry[i]];
+                }
+                for (int i = 2 * n - 1; i < entry.length; i += 1) {
+                    entry[i] = readIndex(data, wide);
+                }
+                sheet.add(entry);
+            }
+            return sheet;
+        } catch (EOFException excp) {
+            throw error("key sheet truncated");
+        } catch (IOException excp) {
+            throw error("could not read key sheet");
+        }
+    }
+
+    /** Write me in binary form to the file named NAME. */
+    void write(String name) {
+        try (OutputStream out = new FileOutputStream(new File(name))) {
+            write(out);
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Write me in binary form to OUT. */
+    void write(OutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        int names = _machine.getAllRotor().size();
+        boolean wide = wide(names, _alphabet.size());
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(_alphabet.size());
+        data.writeInt(_numRotors);
+        data.writeInt(_numRotors - _first);
+        data.writeInt(names);
+        for (Rotor r : _machine.getAllRotor()) {
+            writeString(data, r.name());
+        }
+        data.writeInt(_entries.size());
+        for (int[] entry : _entries) {
+            for (int i = 0; i < 2 * _numRotors - 1; i += 1) {
+                writeIndex(data, entry[i], wide);
+            }
+            writeIndex(data, (entry.length - 2 * _numRotors + 1) / 2, wide);
+            for (int i = 2 * _numRotors - 1; i < entry.length; i += 1) {
+                writeIndex(data, entry[i], wide);
+            }
+        }
+        data.flush();
+        bytes.writeTo(out);
+    }
+
+    /** Return true iff entries are written with chars rather than bytes
+     *  for NAMES rotor names and an alphabet of SIZE characters. */
+    private static boolean wide(int names, int size) {
+        return names > 1 << Byte.SIZE || size > 1 << Byte.SIZE;
+    }
+
+    /** Write the position or index X to OUT as a char if WIDE and
+     *  otherwise as a byte. */
+    private static void writeIndex(DataOutputStream out, int x,
+                                   boolean wide) throws IOException {
+        if (wide) {
+            out.writeChar(x);
+        } else {
+            out.writeByte(x);
+        }
+    }
+
+    /** Return a position or index written to IN by writeIndex with
+     *  WIDE. */
+    private static int readIndex(DataInputStream in, boolean wide)
+        throws IOException {
+        return wide ? in.readChar() : in.readUnsignedByte();
+    }
+
+    /** Write S to OUT as its length followed by its characters. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return a string written to IN by writeString. */
+    private static String readString(DataInputStream in)
+        throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > in.available() / Character.BYTES) {
+            throw new EOFException();
+        }
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    /** Add the settings on each of LINES, skipping blank lines, and
+     *  return a message for each line that is not a valid settings line,
+     *  which is not added. */
+    List<String> addAll(List<String> lines) {
+        List<String> errors = new ArrayList<>();
+        for (int k = 0; k < lines.size(); k += 1) {
+            String line = lines.get(k).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                add(line);
+            } catch (EnigmaException excp) {
+                errors.add(String.format("line %d: %s", k + 1,
+                                         excp.getMessage()));
+            }
+        }
+        return errors;
+    }
+
+    /** Add the settings on the settings line SETTINGS: '*', the rotor
+     *  names, the setting and plugboard cycles of two characters. */
+    void add(String settings) {
+        Scanner s = new Scanner(settings);
+        if (!s.hasNext() || !s.next().equals("*")) {
+            throw error("settings line must start with *");
+        }
+        ArrayList<String> items = new ArrayList<>();
+        while (s.hasNext()) {
+            items.add(s.next());
+        }
+        int n = _numRotors;
+        if (items.size() < n + 1) {
+            throw error("Wrong number of arguments");
+        }
+        String setting = items.get(n);
+        if (setting.length() != n - 1) {
+            throw error("Wrong number of arguments");
+        }
+        int pairs = items.size() - n - 1;
+        int[] entry = new int[2 * n - 1 + 2 * pairs];
+        for (int i = 0; i < n; i += 1) {
+            entry[i] = _machine.rotorIndex(items.get(i));
+            if (entry[i] < 0) {
+                throw error("Rotor not in machine");
+            }
+        }
+        for (int i = 0; i < n - 1; i += 1) {
+            entry[n + i] = index(setting.charAt(i));
+        }
+        for (int p = 0; p < pairs; p += 1) {
+            String cycle = items.get(n + 1 + p);
+            if (cycle.length() != 4 || cycle.charAt(0) != '('
+                || cycle.charAt(3) != ')') {
+                throw error("plugboard cycle %s is not a pair", cycle);
+            }
+            entry[2 * n - 1 + 2 * p] = index(cycle.charAt(1));
+            entry[2 * n + 2 * p] = index(cycle.charAt(2));
+        }
+        add(entry);
+    }
+
+    /** Return the index of CH in my alphabet. */
+    private int index(char ch) {
+        if (!_alphabet.contains(ch)) {
+            throw error("character %c not in alphabet", ch);
+        }
+        return _alphabet.toInt(ch);
+    }
+
+    /** Check and add ENTRY: the positions among the available rotors of
+     *  the rotors in each slot, the settings of the non-reflecting rotors
+     *  and the characters of the plugboard pairs. */
+    private void add(int[] entry) {
+        int n = _numRotors, size = _alphabet.size();
+        for (int i = 0; i < n; i += 1) {
+            Rotor r = _machine.availableRotor(entry[i]);
+            for (int j = 0; j < i; j += 1) {
+                if (entry[j] == entry[i]) {
+                    throw error("rotor %s used twice", r.name());
+                }
+            }
+            if (i == 0 && !r.reflecting()) {
+                throw error("first rotor %s is not a reflector", r.name());
+            } else if (i > 0 && r.reflecting()) {
+                throw error("reflector %s not in first slot", r.name());
+            } else if (i > 0 && r.rotates() != i >= _first) {
+                throw error("rotor %s cannot be in slot %d", r.name(), i);
+            }
+        }
+        int[] forward = new int[size];
+        for (int x = 0; x < size; x += 1) {
+            forward[x] = x;
+        }
+        StringBuilder cycles = new StringBuilder();
+        for (int i = 2 * n - 1; i < entry.length; i += 2) {
+            int a = entry[i], b = entry[i + 1];
+            if (a >= size || b >= size || a == b || forward[a] != a
+                || forward[b] != b) {
+                throw error("bad plugboard pair");
+            }
+            forward[a] = b;
+            forward[b] = a;
+            cycles.append('(').append(_alphabet.toChar(a))
+                .append(_alphabet.toChar(b)).append(')');
+        }
+        for (int i = n; i < 2 * n - 1; i += 1) {
+            if (entry[i] >= size) {
+                throw error("bad setting in key sheet");
+            }
+        }
+        _entries.add(entry);
+        _plugboards.add(new Permutation(cycles.toString(), _alphabet,
+                                        forward));
+    }
+
+    /** Return the number of my entries. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the names of the rotors of my entry K (numbered from 1),
+     *  reflector first. */
+    String[] rotors(int k) {
+        int[] entry = entry(k);
+        String[] result = new String[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            result[i] = _machine.availableRotor(entry[i]).name();
+        }
+        return result;
+    }
+
+    /** Return the setting of the non-reflecting rotors of my entry K
+     *  (numbered from 1), as on a settings line. */
+    String setting(int k) {
+        int[] entry = entry(k);
+        char[] result = new char[_numRotors - 1];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _alphabet.toChar(entry[_numRotors + i]);
+        }
+        return new String(result);
+    }
+
+    /** Return the plugboard of my entry K (numbered from 1). */
+    Permutation plugboard(int k) {
+        entry(k);
+        return _plugboards.get(k - 1);
+    }
+
+    /** Return my entry K (numbered from 1) as a settings line. */
+    String settingsLine(int k) {
+        String cycles = plugboard(k).cycle();
+        return "* " + String.join(" ", rotors(k)) + " " + setting(k)
+            + (cycles.isEmpty() ? "" : " " + cycles.replace(")(", ") ("));
+    }
+
+    /** Return my entry K (numbered from 1). */
+    private int[] entry(int k) {
+        if (k < 1 || k > _entries.size()) {
+            throw error("no key sheet entry %d", k);
+        }
+        return _entries.get(k - 1);
+    }
+
+    /** The machine whose configuration I am for. */
+    private final Machine _machine;
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+    /** Its number of slots. */
+    private final int _numRotors;
+    /** Its first slot with a pawl. */
+    private final int _first;
+    /** My entries, as passed to add(int[]). */
+    private final ArrayList<int[]> _entries = new ArrayList<>();
+    /** The plugboard of each of my entries. */
+    private final ArrayList<Permutation> _plugboards = new ArrayList<>();
+}
@@ -0,0 +1,114 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for KeySheet.
+ *  @author Terrance Wang
+ */
+public class KeySheetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** A configuration on A-Z with two moving rotors. */
+    private static final String LETTERS =
+        "A-Z 4 2\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** Return a machine configured from LETTERS. */
+    private static Machine letters() {
+        return Main.readConfig(new Scanner(LETTERS));
+    }
+
+    /** Return the entries of SHEET as settings lines. */
+    private static String[] lines(KeySheet sheet) {
+        String[] result = new String[sheet.size()];
+        for (int k = 1; k <= sheet.size(); k += 1) {
+            result[k - 1] = sheet.settingsLine(k);
+        }
+        return result;
+    }
+
+    @Test
+    public void checkGenerated() throws IOException {
+        Machine m = letters();
+        KeySheet sheet = KeySheet.generate(m, 300, 5, new Random(25));
+        assertEquals(300, sheet.size());
+        String[] lines = lines(sheet);
+        for (String line : lines) {
+            assertEquals(line, 11, line.split(" ").length);
+        }
+        KeySheet copy = new KeySheet(m);
+        assertTrue(copy.addAll(Arrays.asList(lines)).isEmpty());
+        assertArrayEquals(lines, lines(copy));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sheet.write(bytes);
+        assertTrue(bytes.size() < String.join("\n", lines).length());
+        KeySheet read = KeySheet.read(letters(), bytes.toByteArray());
+        assertArrayEquals(lines, lines(read));
+        assertSame(read.plugboard(7), read.plugboard(7));
+    }
+
+    @Test
+    public void checkInvalidLines() {
+        KeySheet sheet = new KeySheet(letters());
+        List<String> errors = sheet.addAll(Arrays.asList(
+            "* B Beta I II AAA (AB)",
+            "* B I II III AAA",
+            "* B Beta I II AA",
+            "",
+            "* B Beta I I AAA",
+            "* Beta B I II AAA",
+            "* B Beta I II AAA (AB) (BC)",
+            "* B Beta I X AAA",
+            "* B Gamma III II Aa (ABC)",
+            "* B Gamma III II AAA (AZ) (YX)"));
+        assertEquals(2, sheet.size());
+        assertEquals(7, errors.size());
+        assertTrue(errors.get(0), errors.get(0).startsWith("line 2:"));
+        assertTrue(errors.get(2), errors.get(2).startsWith("line 5:"));
+        assertEquals("* B Gamma III II AAA (AZ) (YX)", sheet.settingsLine(2));
+    }
+
+    @Test
+    public void checkOtherConfiguration() throws IOException {
+        KeySheet sheet = KeySheet.generate(letters(), 10, 2, new Random(5));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sheet.write(bytes);
+        Machine digits =
+            Main.readConfig(new Scanner("0123456789 3 2\n"
+                                        + "D M37 (0372) (165) (89)\n"
+                                        + "E N (013) (2468)\n"
+                                        + "R R (01) (23) (45) (67) (89)\n"));
+        try {
+            KeySheet.read(digits, bytes.toByteArray());
+            fail("key sheet read for another configuration");
+        } catch (EnigmaException excp) {
+            /* Ignore */
+        }
+        try {
+            KeySheet.generate(digits, 1, 0, new Random(5));
+            fail("key sheet generated without enough rotors");
+        } catch (EnigmaException excp) {
+            /* Ignore */
+        }
+    }
+}
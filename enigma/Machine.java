@@ -1,8 +1,17 @@
 package enigma;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static enigma.EnigmaException.*;
 
@@ -18,10 +27,111 @@ class Machine {
     private int _pawls;
     /** Collection that stores all available rotors.*/
     private Collection<Rotor> _allRotors;
+    /** My available rotors in the order of _allRotors, or null until
+     *  indexRotors is called. */
+    private Rotor[] _available;
+    /** Position in _available of the first rotor with each name, in
+     *  upper case, or null until indexRotors is called. */
+    private HashMap<String, Integer> _rotorIndex;
     /** Collection of all used slots of an instance.*/
     private ArrayList<Rotor> _slots = new ArrayList<Rotor>();
     /** Stores plugboard cycles.*/
     private Permutation _plugboard;
+    /** My slots from left to right, frozen by insertRotors.*/
+    private Rotor[] _rotors = new Rotor[0];
+    /** Rotors in the order a signal first passes through them, from the
+     *  rightmost rotor through the reflector.*/
+    private Rotor[] _forward = new Rotor[0];
+    /** Non-reflecting rotors in the order a signal passes through them
+     *  on its way back from the reflector.*/
+    private Rotor[] _backward = new Rotor[0];
+    /** Whole-machine permutations indexed by the position state of my
+     *  pawled rotors, each built when first needed, or null if composite
+     *  caching is off or position states are not tabulated (see
+     *  transitions()).  Valid only while the settings of my other slots
+     *  are _compositeBase.*/
+    private int[][] _composites;
+    /** Maximum number of entries built in _composites; 0 disables
+     *  caching.*/
+    private int _cacheCapacity;
+    /** Number of entries built in _composites.*/
+    private int _compositeCount;
+    /** Packed settings of my slots without pawls when _composites was
+     *  filled, or -1.*/
+    private long _compositeBase;
+    /** The position state reached by the last call to advanceRotors
+     *  while _composites is in use.*/
+    private int _lastState;
+    /** Notch masks of the rotors in my pawled slots, leftmost first, or
+     *  null if their settings cannot be packed into a position state.*/
+    private boolean[][] _notchMasks;
+    /** Whether the rotor in each pawled slot can advance.*/
+    private boolean[] _advances;
+    /** Number of bits per rotor setting in a position state.*/
+    private int _stateBits;
+    /** Entry S is nextState(S) for each position state S, or null if
+     *  there are too many states to tabulate.*/
+    private int[] _transitions;
+
+    /** My alphabet as a ByteAlphabet, or null if it has characters
+     *  outside ISO-8859-1.  Valid once _byteAlphabetKnown. */
+    private ByteAlphabet _byteAlphabet;
+
+    /** True iff _byteAlphabet has been computed. */
+    private boolean _byteAlphabetKnown;
+
+    /** Plugboards returned by internPlugboard, keyed by cycle strings
+     *  without whitespace, and shared with my copies.*/
+    private ConcurrentHashMap<String, Permutation> _plugboards =
+        new ConcurrentHashMap<>();
+
+    /** Largest number of cycle strings remembered by
+     *  internPlugboard. */
+    static final int MAX_INTERNED = 4096;
+
+    /** Transition tables built by freezeStepping, keyed by the notch
+     *  masks (by identity) and abilities to advance of the pawled
+     *  rotors, and shared with my copies.*/
+    private ConcurrentHashMap<List<Object>, int[]> _transitionTables =
+        new ConcurrentHashMap<>();
+
+    /** True iff conversions of several characters at a time use a
+     *  generated converter (see Specialized) when there is one. */
+    private boolean _specialize;
+
+    /** The generated converter for my current rotors, or null. */
+    private Specialized _specialized;
+
+    /** Generated converters, keyed by the kinds, permutations and notch
+     *  masks (by identity) of the rotors in my slots, and shared with my
+     *  copies. */
+    private ConcurrentHashMap<List<Object>, Specialized> _specializations =
+        new ConcurrentHashMap<>();
+
+    /** Largest number of converters kept in _specializations. */
+    static final int MAX_SPECIALIZATIONS = 256;
+
+    /** The settings of my slots, as passed to _specialized. */
+    private int[] _slotSettings = new int[0];
+
+    /** My plugboard and its inverse as tables for _specialized (the
+     *  identity if I have no plugboard), or null if not yet built. */
+    private int[] _plug, _unplug;
+
+    /** Characters converted at a time by convert(CharSequence, ...) when
+     *  using _specialized. */
+    private static final int SPECIALIZED_BLOCK = 1 << 10;
+
+    /** Largest number of tables kept in _transitionTables. */
+    static final int MAX_TRANSITION_TABLES = 256;
+
+    /** Largest number of bits in a position state for which
+     *  transitions are tabulated. */
+    static final int TRANSITION_BITS = 16;
+
+    /** Largest number of position states skip remembers while looking
+     *  for the period of my stepping. */
+    static final int SKIP_STATES = 1 << 16;
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
@@ -34,6 +144,96 @@ class Machine {
         _allRotors = allRotors;
     }
 
+    /** Number of characters of input per segment in convertParallel. */
+    static final int PARALLEL_CHUNK = 1 << 16;
+
+    /** Return a new machine with my configuration, rotor choices,
+     *  settings and plugboard.  The copy has its own rotors, which share
+     *  the wiring tables of mine, so it may be advanced independently
+     *  (e.g., in another thread). */
+    Machine copy() {
+        IdentityHashMap<Rotor, Rotor> copies = new IdentityHashMap<>();
+        ArrayList<Rotor> allRotors = new ArrayList<>();
+        for (Rotor r : _allRotors) {
+            Rotor c = r.copy();
+            copies.put(r, c);
+            allRotors.add(c);
+        }
+        Machine result = new Machine(_alphabet, _numRotors, _pawls,
+                                     allRotors);
+        for (Rotor r : _slots) {
+            Rotor c = copies.get(r);
+            result._slots.add(c == null ? r.copy() : c);
+        }
+        result._plugboard = _plugboard;
+        result._cacheCapacity = _cacheCapacity;
+        result._plugboards = _plugboards;
+        result._transitionTables = _transitionTables;
+        result._specializations = _specializations;
+        result._specialize = _specialize;
+        result.freezeRotors();
+        return result;
+    }
+
+    /** Return a record of my rotor choices, their settings and my
+     *  plugboard, which restore() can reinstate. */
+    Snapshot snapshot() {
+        int[] packed = new int[_rotors.length];
+        for (int i = 0; i < _rotors.length; i += 1) {
+            int index = availableIndex(_rotors[i]);
+            if (index < 0 || index > Snapshot.MAX_INDEX
+                || _alphabet.size() > Snapshot.MAX_SETTINGS) {
+                throw error("machine state cannot be packed");
+            }
+            packed[i] = (index << Snapshot.SETTING_BITS)
+                | _rotors[i].setting();
+        }
+        return new Snapshot(packed, _plugboard);
+    }
+
+    /** Restore the rotor choices, settings and plugboard recorded in
+     *  STATE, which must come from snapshot() on me or on a copy of
+     *  me. */
+    void restore(Snapshot state) {
+        int[] packed = state._packed;
+        boolean same = packed.length == _rotors.length;
+        for (int i = 0; same && i < packed.length; i += 1) {
+            same = availableIndex(_rotors[i])
+                == packed[i] >>> Snapshot.SETTING_BITS;
+        }
+        if (!same) {
+            Rotor[] available = _allRotors.toArray(new Rotor[0]);
+            _slots = new ArrayList<>();
+            for (int p : packed) {
+                _slots.add(available[p >>> Snapshot.SETTING_BITS]);
+            }
+            freezeRotors();
+        }
+        for (int i = 0; i < packed.length; i += 1) {
+            _rotors[i].position(packed[i] & Snapshot.SETTING_MASK);
+        }
+        if (_plugboard != state._plugboard) {
+            setPlugboard(state._plugboard);
+        }
+    }
+
+    /** Return the position of R among my available rotors, or -1. */
+    private int availableIndex(Rotor r) {
+        int k = 0;
+        for (Rotor a : _allRotors) {
+            if (a == r) {
+                return k;
+            }
+            k += 1;
+        }
+        return -1;
+    }
+
+    /** Return the common alphabet of my rotors. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numRotors;
@@ -45,93 +245,840 @@ class Machine {
     }
     /** Return the used rotors in machine. */
     Collection<Rotor> slots() {
-        return _slots;
+        return Collections.unmodifiableList(_slots);
+    }
+
+    /** Return the number of bytes used by the conversion tables of all my
+     *  available rotors. */
+    long tableBytes() {
+        long total = 0;
+        for (Rotor r : _allRotors) {
+            total += r.tableBytes();
+        }
+        return total;
     }
 
     /** Return all rotors used in the machine.*/
     Collection<Rotor> getAllRotor() {
         return _allRotors;
     }
+
+    /** Return the position among getAllRotor() of my available rotor
+     *  named NAME, ignoring case, or -1 if there is none.  Names are
+     *  looked up in a hash index built on first use. */
+    int rotorIndex(String name) {
+        if (_rotorIndex == null) {
+            indexRotors();
+        }
+        Integer result = _rotorIndex.get(name.toUpperCase());
+        return result == null ? -1 : result;
+    }
+
+    /** Return my available rotor at position INDEX among
+     *  getAllRotor(). */
+    Rotor availableRotor(int index) {
+        if (_available == null) {
+            indexRotors();
+        }
+        return _available[index];
+    }
+
+    /** Build _available and _rotorIndex. */
+    private void indexRotors() {
+        _available = _allRotors.toArray(new Rotor[0]);
+        _rotorIndex = new HashMap<>();
+        for (int k = 0; k < _available.length; k += 1) {
+            _rotorIndex.putIfAbsent(_available[k].name().toUpperCase(), k);
+        }
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        _slots = new ArrayList<>();
+        ArrayList<Rotor> slots = new ArrayList<>();
         for (String r: rotors) {
-            for (Rotor a: _allRotors) {
-                if (r.toUpperCase().equals(a.name().toUpperCase())) {
-                    _slots.add(a);
+            int k = rotorIndex(r);
+            if (k >= 0) {
+                slots.add(_available[k]);
+            }
+        }
+        if (!slots.equals(_slots)) {
+            _slots = slots;
+            freezeRotors();
+        }
+    }
+
+    /** Copy _slots into the arrays used by convert(int). */
+    private void freezeRotors() {
+        int n = _slots.size();
+        _rotors = _slots.toArray(new Rotor[n]);
+        _forward = new Rotor[n];
+        ArrayList<Rotor> backward = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            _forward[n - 1 - i] = _rotors[i];
+            if (!_rotors[i].reflecting()) {
+                backward.add(_rotors[i]);
+            }
+        }
+        _backward = backward.toArray(new Rotor[backward.size()]);
+        freezeStepping();
+        resetCompositeCache();
+        _slotSettings = new int[n];
+        _specialized = _specialize ? specialization() : null;
+    }
+
+    /** Use a generated converter for my rotors (see Specialized) for
+     *  conversions of several characters at a time, if one can be
+     *  generated, iff ON.  Otherwise, or while Stats is enabled, my
+     *  rotors are interpreted. */
+    void setSpecialize(boolean on) {
+        _specialize = on;
+        _specialized = on ? specialization() : null;
+    }
+
+    /** Return true iff I have a generated converter for my current
+     *  rotors. */
+    boolean specialized() {
+        return _specialized != null;
+    }
+
+    /** Return a generated converter for my current rotors, or null if
+     *  none can be generated. */
+    private Specialized specialization() {
+        List<Object> key = new ArrayList<>();
+        for (Rotor r : _rotors) {
+            key.add(r.getClass());
+            key.add(r.permutation());
+            key.add(r.rotates() ? r.notchMask() : null);
+        }
+        Specialized result = _specializations.get(key);
+        if (result == null) {
+            result = Specialized.generate(this);
+            if (result == null) {
+                return null;
+            }
+            if (_specializations.size() < MAX_SPECIALIZATIONS) {
+                _specializations.putIfAbsent(key, result);
+            }
+        }
+        return result.copy();
+    }
+
+    /** Set up the notch masks and transition table used by
+     *  advanceRotors for my current rotors. */
+    private void freezeStepping() {
+        int n = _rotors.length, first = n - _pawls;
+        _stateBits = 32 - Integer.numberOfLeadingZeros(_alphabet.size() - 1);
+        _notchMasks = null;
+        _transitions = null;
+        if (first < 0 || (long) _stateBits * _pawls >= Long.SIZE) {
+            return;
+        }
+        _notchMasks = new boolean[_pawls][];
+        _advances = new boolean[_pawls];
+        for (int k = 0; k < _pawls; k += 1) {
+            _notchMasks[k] = _rotors[first + k].notchMask();
+            _advances[k] = _rotors[first + k].rotates();
+        }
+        if (_stateBits * _pawls <= TRANSITION_BITS) {
+            List<Object> key = new ArrayList<>();
+            for (int k = 0; k < _pawls; k += 1) {
+                key.add(_notchMasks[k]);
+                key.add(_advances[k]);
+            }
+            _transitions = _transitionTables.get(key);
+            if (_transitions == null) {
+                _transitions = buildTransitions();
+                if (_transitionTables.size() < MAX_TRANSITION_TABLES) {
+                    _transitionTables.putIfAbsent(key, _transitions);
                 }
             }
         }
     }
 
+    /** Return a table whose entry S is nextState(S) for each valid
+     *  position state S of my current rotors. */
+    private int[] buildTransitions() {
+        int[] result = new int[1 << (_stateBits * _pawls)];
+        for (int s = 0; s < result.length; s += 1) {
+            if (validState(s)) {
+                result[s] = (int) nextState(s);
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff each rotor setting packed in STATE is in
+     *  range. */
+    private boolean validState(long state) {
+        long mask = (1L << _stateBits) - 1;
+        for (int k = 0; k < _pawls; k += 1) {
+            if ((state >>> (k * _stateBits) & mask) >= _alphabet.size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the settings of my pawled rotors can be packed
+     *  into a position state. */
+    boolean packedStepping() {
+        return _notchMasks != null;
+    }
+
+    /** Return the number of bits per rotor setting in a position
+     *  state. */
+    int stateBits() {
+        return _stateBits;
+    }
+
+    /** Return the table whose entry S is nextState(S), or null if my
+     *  position states are too large to tabulate.  The result must not
+     *  be modified. */
+    int[] transitions() {
+        return _transitions;
+    }
+
+    /** Return the settings of the rotors in my pawled slots packed into
+     *  a position state: _stateBits bits per rotor, the leftmost most
+     *  significant. */
+    long positionState() {
+        long state = 0;
+        for (int i = _rotors.length - _pawls; i < _rotors.length; i += 1) {
+            state = state << _stateBits | _rotors[i].setting();
+        }
+        return state;
+    }
+
+    /** Return the position state after one keystroke from position state
+     *  STATE.  Depends only on STATE and my choice of rotors. */
+    long nextState(long state) {
+        int size = _alphabet.size(), bits = _stateBits;
+        long mask = (1L << bits) - 1, next = state;
+        for (int k = 0; k < _pawls; k += 1) {
+            int shift = (_pawls - 1 - k) * bits;
+            int setting = (int) (state >>> shift & mask);
+            boolean step = k == _pawls - 1
+                || _notchMasks[k + 1][(int) (state >>> (shift - bits) & mask)]
+                || (k > 0 && _notchMasks[k][setting]);
+            if (step && _advances[k]) {
+                setting = setting + 1 == size ? 0 : setting + 1;
+                next = next & ~(mask << shift) | (long) setting << shift;
+            }
+        }
+        return next;
+    }
+
+    /** Cache the whole-machine permutation for up to CAPACITY distinct
+     *  rotor positions, in a table indexed by position state, so that
+     *  a cached position costs one array lookup per character.  A
+     *  CAPACITY of 0 turns caching off.  Nothing is evicted: once
+     *  CAPACITY positions are cached, others are computed as without
+     *  the cache.  Caching pays off only when positions repeat, i.e. for
+     *  messages longer than the stepping period, and CAPACITY should
+     *  cover every position state reached in that period (16900 for
+     *  three pawled rotors on 26 letters); a smaller CAPACITY helps
+     *  only in proportion.  It is ignored when position states are too
+     *  large to tabulate. */
+    void setCompositeCache(int capacity) {
+        if (capacity < 0) {
+            throw error("negative cache capacity");
+        }
+        _cacheCapacity = capacity;
+        resetCompositeCache();
+    }
+
+    /** Discard all cached composite permutations, disabling the cache
+     *  if it is off or my position states are not tabulated. */
+    private void resetCompositeCache() {
+        _composites = null;
+        _compositeCount = 0;
+        _compositeBase = -1;
+        if (_cacheCapacity > 0 && _transitions != null) {
+            _composites = new int[_transitions.length][];
+        }
+    }
+
+    /** Return the settings of my slots without pawls packed into a long,
+     *  leftmost most significant. */
+    private long baseSettings() {
+        int n = _alphabet.size();
+        long key = 0;
+        for (int i = 0; i < _rotors.length - _pawls; i += 1) {
+            key = key * n + _rotors[i].setting();
+        }
+        return key;
+    }
+
+    /** Return the whole-machine permutation at the current rotor
+     *  settings, which advanceRotors has just reached, building and
+     *  caching it if there is room, or null if it is not cached and
+     *  there is none. */
+    private int[] composite() {
+        long base = baseSettings();
+        if (base != _compositeBase) {
+            Arrays.fill(_composites, null);
+            _compositeCount = 0;
+            _compositeBase = base;
+        }
+        int[] perm = _composites[_lastState];
+        if (perm == null && _compositeCount < _cacheCapacity) {
+            perm = new int[_alphabet.size()];
+            for (int c = 0; c < perm.length; c += 1) {
+                perm[c] = pass(c);
+            }
+            _composites[_lastState] = perm;
+            _compositeCount += 1;
+        }
+        return perm;
+    }
+
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 upper-case letters. The first letter refers to the
      *  leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        Iterator<Rotor> a = _slots.iterator();
+        int j = 0;
         for (int i = 0; i < setting.length(); i++) {
-            Rotor b = a.next();
-            while (b.reflecting()) {
-                b = a.next();
+            while (_rotors[j].reflecting()) {
+                j += 1;
+            }
+            _rotors[j].set(setting.charAt(i));
+            j += 1;
+        }
+    }
+
+    /** Set my rotors according to SETTING, which holds the settings, as
+     *  indices into my alphabet, of my non-reflecting rotors from left to
+     *  right. */
+    void setRotors(int[] setting) {
+        int j = 0;
+        for (int i = 0; i < setting.length; i++) {
+            while (_rotors[j].reflecting()) {
+                j += 1;
             }
-            b.set(setting.charAt(i));
+            _rotors[j].position(setting[i]);
+            j += 1;
         }
     }
 
 
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
-        _plugboard = plugboard;
+        if (plugboard != _plugboard) {
+            _plugboard = plugboard;
+            _plug = _unplug = null;
+            resetCompositeCache();
+        }
+    }
+
+    /** Return a permutation of my alphabet given by CYCLES, for use as a
+     *  plugboard.  Cycle strings that describe the same permutation give
+     *  the same object, so that repeated settings share one plugboard;
+     *  it must not be modified. */
+    Permutation internPlugboard(String cycles) {
+        String key = cycles.replaceAll("\\s+", "");
+        Permutation result = _plugboards.get(key);
+        if (result == null) {
+            result = new Permutation(cycles, _alphabet);
+            if (_plugboards.size() < MAX_INTERNED) {
+                Permutation old =
+                    _plugboards.putIfAbsent(result.canonical(), result);
+                if (old != null) {
+                    result = old;
+                }
+                _plugboards.putIfAbsent(key, result);
+            }
+        }
+        return result;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
+        if (c < 0 || c >= _alphabet.size()) {
+            c = Math.floorMod(c, _alphabet.size());
+        }
+        advanceRotors();
+        if (Stats.enabled()) {
+            Stats.characters(1);
+        }
+        if (_composites != null) {
+            int[] perm = composite();
+            if (perm != null) {
+                return perm[c];
+            }
+        }
+        return pass(c);
+    }
+
+    /** Return the result of sending C through the plugboard, rotors and
+     *  reflector, and back, without advancing the machine. */
+    private int pass(int c) {
         if (_plugboard != null) {
             c = _plugboard.permute(c);
         }
-        boolean nextMoving = true;
-        for (int i = _slots.size() - _pawls; i < _slots.size(); i++) {
-            if (i != (_slots.size() - 1)) {
-                if (_slots.get(i + 1).atNotch()) {
-                    _slots.get(i).advance();
-                } else if (_slots.get(i).atNotch()
-                        && i != _slots.size() - _pawls) {
-                    _slots.get(i).advance();
+        c = scramble(c);
+        if (_plugboard != null) {
+            c = _plugboard.invert(c);
+        }
+        return c;
+    }
+
+    /** Return the result of sending C through my rotors and reflector,
+     *  and back, bypassing the plugboard and without advancing. */
+    private int scramble(int c) {
+        Rotor[] forward = _forward, backward = _backward;
+        for (int i = 0; i < forward.length; i += 1) {
+            c = forward[i].convertForward(c);
+        }
+        for (int i = 0; i < backward.length; i += 1) {
+            c = backward[i].convertBackward(c);
+        }
+        return c;
+    }
+
+    /** Store the permutation performed by my rotors and reflector at
+     *  their current settings, without the plugboard, in OUT[START ..
+     *  START + alphabet size - 1]. */
+    void scrambler(int[] out, int start) {
+        int n = _alphabet.size();
+        for (int x = 0; x < n; x += 1) {
+            out[start + x] = scramble(x);
+        }
+    }
+
+    /** Advance my rotors to where they would be after converting STEPS
+     *  more characters.  Runs of keystrokes that move only the rightmost
+     *  rotor are skipped in one go.  Since the position state after a
+     *  keystroke depends only on the one before, the states repeat: the
+     *  states where another rotor moves are remembered (up to
+     *  SKIP_STATES of them) until one recurs, and STEPS is then reduced
+     *  modulo the period.  The cost is thus proportional to the number of
+     *  times another rotor moves in at most one period of the stepping
+     *  (about 700 for three pawled rotors on 26 letters), not to STEPS.
+     *  Only when the settings cannot be packed into a position state is
+     *  it proportional to the number of such moves in STEPS. */
+    void skip(long steps) {
+        int n = _rotors.length;
+        if (n == 0 || _pawls == 0) {
+            return;
+        }
+        Rotor right = _rotors[n - 1];
+        HashMap<Long, Long> seen =
+            _notchMasks == null ? null : new HashMap<>();
+        while (steps > 0) {
+            long quiet = quietSteps();
+            if (quiet == 0) {
+                if (seen != null) {
+                    Long before = seen.putIfAbsent(positionState(), steps);
+                    if (before != null) {
+                        steps %= before - steps;
+                        seen = null;
+                        continue;
+                    } else if (seen.size() == SKIP_STATES) {
+                        seen = null;
+                    }
                 }
+                advanceRotors();
+                steps -= 1;
             } else {
-                _slots.get(i).advance();
+                long k = Math.min(quiet, steps);
+                if (right.rotates()) {
+                    right.set((int) ((right.setting() + k % right.size())
+                                     % right.size()));
+                }
+                steps -= k;
             }
         }
-        Collections.reverse(_slots);
-        for (Rotor a: _slots) {
-            c = a.convertForward(c);
+    }
+
+    /** Return the number of keystrokes, starting with the next, that
+     *  would advance only my rightmost rotor, or Long.MAX_VALUE if that
+     *  is all that will ever move. */
+    private long quietSteps() {
+        Rotor[] rotors = _rotors;
+        int n = rotors.length;
+        if (_pawls <= 1) {
+            return Long.MAX_VALUE;
         }
-        Collections.reverse(_slots);
-        for (Rotor a: _slots) {
-            if (!a.reflecting()) {
-                c = a.convertBackward(c);
+        for (int i = n - _pawls + 1; i < n - 1; i += 1) {
+            if (rotors[i].atNotch()) {
+                return 0;
             }
         }
-        if (_plugboard != null) {
-            c = _plugboard.invert(c);
+        int d = rotors[n - 1].stepsToNotch();
+        return d < 0 ? Long.MAX_VALUE : d;
+    }
+
+    /** Step my moving rotors by one keystroke. The rightmost rotor
+     *  always advances; any other moving rotor advances when the rotor to
+     *  its right is at a notch, or when it is itself at a notch and the
+     *  rotor to its left has a pawl. */
+    void advanceRotors() {
+        if (_notchMasks == null) {
+            stepRotors();
+            return;
+        }
+        long state = positionState();
+        long next = _transitions != null ? _transitions[(int) state]
+            : nextState(state);
+        _lastState = (int) next;
+        long changed = state ^ next, mask = (1L << _stateBits) - 1;
+        if (Stats.enabled()) {
+            countSteps(state, changed);
+        }
+        for (int i = _rotors.length - 1; changed != 0; i -= 1) {
+            if ((changed & mask) != 0) {
+                _rotors[i].position((int) (next & mask));
+            }
+            changed >>>= _stateBits;
+            next >>>= _stateBits;
+        }
+    }
+
+    /** Record in Stats the rotor advances in a keystroke from position
+     *  state STATE, where CHANGED has the bits of the settings that
+     *  change set, and how many of them are double steps: a rotor
+     *  other than the leftmost and rightmost pawled rotors advancing
+     *  because it is at a notch while the rotor to its right is not. */
+    private void countSteps(long state, long changed) {
+        long mask = (1L << _stateBits) - 1;
+        int advances = 0, doubleSteps = 0;
+        for (int k = _pawls - 1; k >= 0; k -= 1) {
+            int shift = (_pawls - 1 - k) * _stateBits;
+            if ((changed >>> shift & mask) != 0) {
+                advances += 1;
+                if (k > 0 && k < _pawls - 1
+                    && _notchMasks[k][(int) (state >>> shift & mask)]
+                    && !_notchMasks[k + 1]
+                        [(int) (state >>> (shift - _stateBits) & mask)]) {
+                    doubleSteps += 1;
+                }
+            }
+        }
+        Stats.steps(advances, doubleSteps);
+    }
+
+    /** Step my moving rotors as for advanceRotors, one rotor at a
+     *  time. */
+    private void stepRotors() {
+        Rotor[] rotors = _rotors;
+        int n = rotors.length, advances = 0, doubleSteps = 0;
+        for (int i = n - _pawls; i < n; i += 1) {
+            if (i != n - 1) {
+                if (rotors[i + 1].atNotch()) {
+                    rotors[i].advance();
+                    advances += 1;
+                } else if (rotors[i].atNotch() && i != n - _pawls) {
+                    rotors[i].advance();
+                    advances += 1;
+                    doubleSteps += 1;
+                }
+            } else {
+                rotors[i].advance();
+                advances += 1;
+            }
+        }
+        if (Stats.enabled()) {
+            Stats.steps(advances, doubleSteps);
+        }
+    }
+
+    /** Convert each of MESSAGES, arrays of alphabet indices, in place,
+     *  all at once: MESSAGES[K] is converted as by convert(int) on a
+     *  copy of me whose non-reflecting rotors are at SETTINGS[K] (as for
+     *  setRotors(int[])) and whose plugboard is PLUGBOARDS[K] (none if
+     *  null).  My own settings and plugboard are unchanged.  See
+     *  MachineBatch. */
+    void convertBatch(int[][] settings, Permutation[] plugboards,
+                      int[][] messages) {
+        MachineBatch.create(this, messages.length)
+            .convert(settings, plugboards, messages);
+    }
+
+    /** Convert the alphabet indices MSG[START .. END-1] in place, as
+     *  convert(int) would convert each in turn, with my generated
+     *  converter if I have one. */
+    void convert(int[] msg, int start, int end) {
+        Specialized specialized = _specialized;
+        if (specialized == null || Stats.enabled()) {
+            for (int i = start; i < end; i += 1) {
+                msg[i] = convert(msg[i]);
+            }
+            return;
+        }
+        int size = _alphabet.size();
+        for (int i = start; i < end; i += 1) {
+            if (msg[i] < 0 || msg[i] >= size) {
+                msg[i] = Math.floorMod(msg[i], size);
+            }
+        }
+        if (_plug == null) {
+            _plug = new int[size];
+            _unplug = new int[size];
+            for (int x = 0; x < size; x += 1) {
+                _plug[x] = _plugboard == null ? x : _plugboard.permute(x);
+                _unplug[x] = _plugboard == null ? x : _plugboard.invert(x);
+            }
+        }
+        int[] settings = _slotSettings;
+        for (int k = 0; k < _rotors.length; k += 1) {
+            settings[k] = _rotors[k].setting();
+        }
+        specialized.convert(settings, _plug, _unplug, msg, start, end);
+        for (int k = _rotors.length - _pawls; k < _rotors.length; k += 1) {
+            _rotors[k].position(settings[k]);
         }
-        return c;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String a = "";
-        for (int i = 0; i < msg.length(); i++) {
-            if (msg.charAt(i) != ' ') {
-                int newChar = convert(_alphabet.toInt(msg.charAt(i)));
-                a = a + Character.toString(_alphabet.toChar(newChar));
+        char[] result = new char[msg.length()];
+        int len = convert(msg, result, 0);
+        return new String(result, 0, len);
+    }
+
+    /** Encode/decode the characters of MSG into OUT starting at index
+     *  POS, skipping blanks and updating the state of the rotors
+     *  accordingly.  OUT must have room for MSG.length() characters.
+     *  Returns the index in OUT just past the last character written. */
+    int convert(CharSequence msg, char[] out, int pos) {
+        return convert(msg, 0, msg.length(), out, pos);
+    }
+
+    /** Encode/decode the characters of MSG from index START up to END
+     *  into OUT starting at index POS, as for convert(MSG, OUT, POS).
+     *  Returns the index in OUT just past the last character written. */
+    private int convert(CharSequence msg, int start, int end,
+                        char[] out, int pos) {
+        if (_specialized != null && !Stats.enabled()) {
+            int[] block = new int[Math.min(SPECIALIZED_BLOCK, end - start)];
+            int i = start;
+            while (i < end) {
+                int len = 0;
+                for (; i < end && len < block.length; i += 1) {
+                    char ch = msg.charAt(i);
+                    if (ch != ' ') {
+                        block[len] = _alphabet.toInt(ch);
+                        len += 1;
+                    }
+                }
+                convert(block, 0, len);
+                for (int k = 0; k < len; k += 1) {
+                    out[pos] = _alphabet.toChar(block[k]);
+                    pos += 1;
+                }
+            }
+            return pos;
+        }
+        for (int i = start; i < end; i += 1) {
+            char ch = msg.charAt(i);
+            if (ch != ' ') {
+                out[pos] = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+                pos += 1;
+            }
+        }
+        return pos;
+    }
+
+    /** Returns the encoding/decoding of MSG as for convert(MSG), but
+     *  encoding segments of a long MSG in parallel. */
+    String convertParallel(String msg) {
+        char[] result = new char[msg.length()];
+        int len = convertParallel(msg, result, 0);
+        return new String(result, 0, len);
+    }
+
+    /** Encode/decode MSG into OUT starting at POS with the same result
+     *  as convert(MSG, OUT, POS).  MSG is split into segments of
+     *  PARALLEL_CHUNK characters, each of which is converted by a copy
+     *  of me that has skipped ahead to its starting position.  Returns
+     *  the index in OUT just past the last character written. */
+    int convertParallel(CharSequence msg, char[] out, int pos) {
+        int len = msg.length();
+        int chunks = (len + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        if (chunks <= 1) {
+            return convert(msg, out, pos);
+        }
+        Machine[] workers = new Machine[chunks];
+        int[] starts = new int[chunks];
+        for (int j = 0; j < chunks; j += 1) {
+            workers[j] = copy();
+            starts[j] = pos;
+            int count = 0;
+            int end = Math.min(len, (j + 1) * PARALLEL_CHUNK);
+            for (int i = j * PARALLEL_CHUNK; i < end; i += 1) {
+                if (msg.charAt(i) != ' ') {
+                    count += 1;
+                }
+            }
+            skip(count);
+            pos += count;
+        }
+        ForkJoinPool.commonPool().invoke(
+            new ConvertTask(msg, out, workers, starts, 0, chunks));
+        return pos;
+    }
+
+    /** Encode/decode the remaining characters of IN into OUT, skipping
+     *  blanks and updating the state of the rotors accordingly.  Stops
+     *  early, leaving the rest of IN unread, if OUT fills up. */
+    void convert(CharBuffer in, CharBuffer out) {
+        while (in.hasRemaining() && out.hasRemaining()) {
+            char ch = in.get();
+            if (ch != ' ') {
+                out.put(_alphabet.toChar(convert(_alphabet.toInt(ch))));
+            }
+        }
+    }
+
+    /** Return my alphabet as a ByteAlphabet, or null if it has
+     *  characters outside ISO-8859-1. */
+    ByteAlphabet byteAlphabet() {
+        if (!_byteAlphabetKnown) {
+            _byteAlphabet = ByteAlphabet.of(_alphabet);
+            _byteAlphabetKnown = true;
+        }
+        return _byteAlphabet;
+    }
+
+    /** Return byteAlphabet(), which must not be null. */
+    private ByteAlphabet checkedByteAlphabet() {
+        ByteAlphabet result = byteAlphabet();
+        if (result == null) {
+            throw error("alphabet is not single-byte");
+        }
+        return result;
+    }
+
+    /** Return the result of converting the character whose ISO-8859-1
+     *  code is B, as for convert(int), using ALPHA, my alphabet. */
+    private byte convert(ByteAlphabet alpha, byte b) {
+        int c = alpha.toInt(b);
+        if (c == -1) {
+            throw error("character '%c' not in alphabet", (char) (b & 0xff));
+        }
+        return alpha.toByte(convert(c));
+    }
+
+    /** Encode/decode the ISO-8859-1 characters IN[START .. END-1] into
+     *  OUT starting at index POS, skipping blanks and updating the state
+     *  of the rotors accordingly.  OUT must have room for END - START
+     *  bytes.  Returns the index in OUT just past the last byte
+     *  written. */
+    int convert(byte[] in, int start, int end, byte[] out, int pos) {
+        ByteAlphabet alpha = checkedByteAlphabet();
+        for (int i = start; i < end; i += 1) {
+            if (in[i] != ' ') {
+                out[pos] = convert(alpha, in[i]);
+                pos += 1;
+            }
+        }
+        return pos;
+    }
+
+    /** Encode/decode the remaining ISO-8859-1 characters of IN into OUT,
+     *  as for convert(CharBuffer, CharBuffer). */
+    void convert(ByteBuffer in, ByteBuffer out) {
+        ByteAlphabet alpha = checkedByteAlphabet();
+        while (in.hasRemaining() && out.hasRemaining()) {
+            byte b = in.get();
+            if (b != ' ') {
+                out.put(convert(alpha, b));
+            }
+        }
+    }
+
+    /** Encode/decode the characters of MSG, skipping blanks, and append
+     *  the results to OUT, updating the state of the rotors
+     *  accordingly. */
+    void convert(CharSequence msg, Appendable out) {
+        try {
+            for (int i = 0; i < msg.length(); i += 1) {
+                char ch = msg.charAt(i);
+                if (ch != ' ') {
+                    out.append(_alphabet.toChar(convert(_alphabet.toInt(ch))));
+                }
             }
+        } catch (IOException excp) {
+            throw error("could not write converted message");
         }
-        return a;
     }
+
+    /** A saved machine state: each slot's rotor, as an index into the
+     *  available rotors, and setting, packed into one int per slot, plus
+     *  the plugboard in effect. */
+    static final class Snapshot {
+        /** Number of low-order bits of a packed slot holding its
+         *  setting. */
+        static final int SETTING_BITS = 16;
+        /** Mask extracting the setting from a packed slot. */
+        static final int SETTING_MASK = (1 << SETTING_BITS) - 1;
+        /** Largest alphabet size that can be packed. */
+        static final int MAX_SETTINGS = 1 << SETTING_BITS;
+        /** Largest rotor index that can be packed. */
+        static final int MAX_INDEX = (1 << (31 - SETTING_BITS)) - 1;
+
+        /** A snapshot of slots PACKED and plugboard PLUGBOARD. */
+        private Snapshot(int[] packed, Permutation plugboard) {
+            _packed = packed;
+            _plugboard = plugboard;
+        }
+
+        /** Packed rotor index and setting of each slot. */
+        private final int[] _packed;
+        /** Plugboard, or null. */
+        private final Permutation _plugboard;
+    }
+
+    /** Converts a range of the segments of a message in parallel. */
+    private static class ConvertTask extends RecursiveAction {
+        /** A task converting segments LO up to HI of MSG into OUT, where
+         *  segment J is converted by WORKERS[J] into OUT starting at
+         *  STARTS[J]. */
+        ConvertTask(CharSequence msg, char[] out, Machine[] workers,
+                    int[] starts, int lo, int hi) {
+            _msg = msg;
+            _out = out;
+            _workers = workers;
+            _starts = starts;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo == 1) {
+                int start = _lo * PARALLEL_CHUNK;
+                int end = Math.min(_msg.length(), start + PARALLEL_CHUNK);
+                _workers[_lo].convert(_msg, start, end, _out, _starts[_lo]);
+            } else {
+                int mid = (_lo + _hi) / 2;
+                invokeAll(new ConvertTask(_msg, _out, _workers, _starts,
+                                          _lo, mid),
+                          new ConvertTask(_msg, _out, _workers, _starts,
+                                          mid, _hi));
+            }
+        }
+
+        /** Message being converted. */
+        private final CharSequence _msg;
+        /** Destination of converted characters. */
+        private final char[] _out;
+        /** Machine positioned at the start of each segment. */
+        private final Machine[] _workers;
+        /** Output index of each segment. */
+        private final int[] _starts;
+        /** Range of segments converted by this task. */
+        private final int _lo, _hi;
+    }
+
 }
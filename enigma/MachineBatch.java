@@ -0,0 +1,245 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Converts several messages at once on one choice of rotors, each
+ *  message with its own rotor settings and plugboard.  The messages
+ *  advance in lockstep: at each step, every message still in progress
+ *  has its rotors stepped and its next character converted.  Rotor
+ *  settings are held as structures of arrays, one array of lanes (one
+ *  lane per message) for each slot, and the wiring of each rotor as a
+ *  doubled table, so that a step is a series of table lookups across
+ *  all lanes.
+ *
+ *  This class does the lookups one lane at a time.  If the class
+ *  VectorMachineBatch (whose source is in the vector directory, since
+ *  it needs the incubating module jdk.incubator.vector to compile and
+ *  run) is available, create() returns one of those instead, which does
+ *  them with vector gathers.
+ *  @author Terrance Wang
+ */
+class MachineBatch {
+
+    /** Return a batch converter for up to LANES messages on the rotors
+     *  now in MACHINE, using vector instructions if possible. */
+    static MachineBatch create(Machine machine, int lanes) {
+        if (_vectorAvailable) {
+            try {
+                return (MachineBatch) Class.forName(VECTOR_CLASS)
+                    .getDeclaredConstructor(Machine.class, int.class)
+                    .newInstance(machine, lanes);
+            } catch (ReflectiveOperationException | LinkageError excp) {
+                _vectorAvailable = false;
+            }
+        }
+        return new MachineBatch(machine, lanes);
+    }
+
+    /** A scalar batch converter for up to LANES messages on the rotors
+     *  now in MACHINE. */
+    MachineBatch(Machine machine, int lanes) {
+        _machine = machine;
+        _size = machine.alphabet().size();
+        _lanes = lanes;
+        _rotors = machine.slots().toArray(new Rotor[0]);
+        int n = _rotors.length;
+        _first = n - machine.numPawls();
+        _pos = new int[n][lanes];
+        _states = new long[lanes];
+        _plug = new int[lanes * _size];
+        _unplug = new int[lanes * _size];
+        _in = new int[lanes];
+        _out = new int[lanes];
+        _order = new int[lanes];
+        _fwd = new int[n][];
+        _fwdSlot = new int[n];
+        int backward = 0;
+        for (int i = 0; i < n; i += 1) {
+            _fwd[i] = wiring(_rotors[n - 1 - i], false);
+            _fwdSlot[i] = n - 1 - i;
+            backward += _rotors[i].reflecting() ? 0 : 1;
+        }
+        _bwd = new int[backward][];
+        _bwdSlot = new int[backward];
+        for (int i = 0, k = 0; i < n; i += 1) {
+            if (!_rotors[i].reflecting()) {
+                _bwd[k] = wiring(_rotors[i], true);
+                _bwdSlot[k] = i;
+                k += 1;
+            }
+        }
+    }
+
+    /** Return the wiring of R (its inverse if INVERSE) as a table of
+     *  twice the alphabet size, whose entry P + S, for a setting S, is
+     *  where the wiring takes contact P + S, so that R at setting S takes
+     *  P to that entry minus S, modulo the alphabet size. */
+    private int[] wiring(Rotor r, boolean inverse) {
+        Permutation perm = r.permutation();
+        int[] result = new int[2 * _size];
+        for (int x = 0; x < _size; x += 1) {
+            result[x] = inverse ? perm.invert(x) : perm.permute(x);
+            result[x + _size] = result[x];
+        }
+        return result;
+    }
+
+    /** Convert MESSAGES in place, as for Machine.convertBatch with
+     *  SETTINGS and PLUGBOARDS. */
+    void convert(int[][] settings, Permutation[] plugboards,
+                 int[][] messages) {
+        int lanes = messages.length;
+        if (lanes > _lanes || settings.length != lanes
+            || plugboards.length != lanes) {
+            throw error("wrong number of messages, settings or plugboards");
+        }
+        if (!_machine.packedStepping()) {
+            convertEach(settings, plugboards, messages);
+            return;
+        }
+        Integer[] byLength = new Integer[lanes];
+        for (int k = 0; k < lanes; k += 1) {
+            byLength[k] = k;
+        }
+        Arrays.sort(byLength,
+            (a, b) -> messages[b].length - messages[a].length);
+        for (int l = 0; l < lanes; l += 1) {
+            _order[l] = byLength[l];
+            load(l, settings[_order[l]], plugboards[_order[l]]);
+        }
+        int active = lanes;
+        for (int t = 0; active > 0; t += 1) {
+            while (active > 0 && messages[_order[active - 1]].length <= t) {
+                active -= 1;
+            }
+            step(active);
+            for (int l = 0; l < active; l += 1) {
+                _in[l] = Math.floorMod(messages[_order[l]][t], _size);
+            }
+            encode(_in, _out, 0, active);
+            for (int l = 0; l < active; l += 1) {
+                messages[_order[l]][t] = _out[l];
+            }
+        }
+    }
+
+    /** Set up lane L with non-reflecting rotor settings SETTING (those
+     *  it lacks are taken from my machine) and plugboard PLUGBOARD. */
+    private void load(int l, int[] setting, Permutation plugboard) {
+        long state = 0;
+        for (int i = 0, j = 0; i < _rotors.length; i += 1) {
+            int s = _rotors[i].setting();
+            if (!_rotors[i].reflecting() && j < setting.length) {
+                s = setting[j];
+                j += 1;
+                if (s < 0 || s >= _size) {
+                    throw error("rotor setting out of range");
+                }
+            }
+            _pos[i][l] = s;
+            if (i >= _first) {
+                state = state << _machine.stateBits() | s;
+            }
+        }
+        _states[l] = state;
+        for (int x = 0; x < _size; x += 1) {
+            _plug[l * _size + x] =
+                plugboard == null ? x : plugboard.permute(x);
+            _unplug[l * _size + x] =
+                plugboard == null ? x : plugboard.invert(x);
+        }
+    }
+
+    /** Advance the rotors in lanes 0 .. ACTIVE-1 by one keystroke. */
+    private void step(int active) {
+        int[] table = _machine.transitions();
+        int bits = _machine.stateBits();
+        long mask = (1L << bits) - 1;
+        for (int l = 0; l < active; l += 1) {
+            long next = table != null ? table[(int) _states[l]]
+                : _machine.nextState(_states[l]);
+            _states[l] = next;
+            for (int i = _rotors.length - 1; i >= _first; i -= 1) {
+                _pos[i][l] = (int) (next & mask);
+                next >>>= bits;
+            }
+        }
+    }
+
+    /** Set OUT[L] to the conversion of the alphabet index IN[L] in lane
+     *  L at its current rotor settings, for FROM <= L < TO. */
+    void encode(int[] in, int[] out, int from, int to) {
+        int n = _size;
+        for (int l = from; l < to; l += 1) {
+            int base = l * n;
+            int c = _plug[base + in[l]];
+            for (int k = 0; k < _fwd.length; k += 1) {
+                int p = _pos[_fwdSlot[k]][l];
+                int v = _fwd[k][c + p] - p;
+                c = v < 0 ? v + n : v;
+            }
+            for (int k = 0; k < _bwd.length; k += 1) {
+                int p = _pos[_bwdSlot[k]][l];
+                int v = _bwd[k][c + p] - p;
+                c = v < 0 ? v + n : v;
+            }
+            out[l] = _unplug[base + c];
+        }
+    }
+
+    /** Convert MESSAGES as for convert(SETTINGS, PLUGBOARDS, MESSAGES),
+     *  one message at a time on a copy of my machine, for machines whose
+     *  stepping cannot be packed. */
+    private void convertEach(int[][] settings, Permutation[] plugboards,
+                             int[][] messages) {
+        for (int k = 0; k < messages.length; k += 1) {
+            Machine m = _machine.copy();
+            m.setRotors(settings[k]);
+            m.setPlugboard(plugboards[k]);
+            int[] msg = messages[k];
+            for (int t = 0; t < msg.length; t += 1) {
+                msg[t] = m.convert(msg[t]);
+            }
+        }
+    }
+
+    /** Name of the vectorized subclass. */
+    private static final String VECTOR_CLASS = "enigma.VectorMachineBatch";
+
+    /** False once loading VECTOR_CLASS has failed. */
+    private static volatile boolean _vectorAvailable = true;
+
+    /** Machine whose rotors I use. */
+    private final Machine _machine;
+    /** Rotors of _machine, left to right. */
+    private final Rotor[] _rotors;
+    /** Index of the leftmost pawled slot. */
+    private final int _first;
+    /** Packed position state of the pawled rotors in each lane. */
+    private final long[] _states;
+    /** Lane number of each message, longest first, and scratch
+     *  input and output characters for each lane. */
+    private final int[] _order, _in, _out;
+
+    /** Size of the alphabet. */
+    final int _size;
+    /** Largest number of lanes. */
+    final int _lanes;
+    /** _pos[I][L] is the setting of slot I in lane L. */
+    final int[][] _pos;
+    /** The plugboard of lane L takes X to _plug[L * _size + X] on the
+     *  way in, and back to _unplug[L * _size + X] on the way out. */
+    final int[] _plug, _unplug;
+    /** Doubled wiring tables of the rotors a signal passes through on
+     *  its way to the reflector, in order, and their slots. */
+    final int[][] _fwd;
+    /** Slot of each rotor in _fwd. */
+    final int[] _fwdSlot;
+    /** Doubled inverse wiring tables of the rotors a signal passes
+     *  through on its way back from the reflector, and their slots. */
+    final int[][] _bwd;
+    /** Slot of each rotor in _bwd. */
+    final int[] _bwdSlot;
+}
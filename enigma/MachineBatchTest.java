@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for MachineBatch.
+ *  @author Terrance Wang
+ */
+public class MachineBatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Plugboards made of swapped pairs, as on the real machines. */
+    private static final String[] PAIRED_PLUGS =
+        {null, "(AQ) (EP)", "(AB) (CD) (EF) (GH) (XZ)"};
+
+    /** Plugboards that are not their own inverses. */
+    private static final String[] CYCLIC_PLUGS =
+        {"(ABC)", "(AQ) (EPX) (BCDFG)", null};
+
+    /** Check BATCH against Machine.convert(int) on LANES random messages
+     *  of differing lengths, with plugboards taken in turn from PLUGS. */
+    private void checkBatch(Machine m, MachineBatch batch, int lanes,
+                            String[] plugs) {
+        Random random = new Random(lanes);
+        int[][] settings = new int[lanes][4];
+        Permutation[] plugboards = new Permutation[lanes];
+        int[][] messages = new int[lanes][];
+        int[][] expected = new int[lanes][];
+        for (int k = 0; k < lanes; k += 1) {
+            for (int i = 0; i < 4; i += 1) {
+                settings[k][i] = random.nextInt(26);
+            }
+            String p = plugs[k % plugs.length];
+            plugboards[k] = p == null ? null : new Permutation(p, UPPER);
+            messages[k] = new int[random.nextInt(800)];
+            for (int t = 0; t < messages[k].length; t += 1) {
+                messages[k][t] = random.nextInt(26);
+            }
+            Machine ref = m.copy();
+            ref.setRotors(settings[k]);
+            ref.setPlugboard(plugboards[k]);
+            expected[k] = messages[k].clone();
+            for (int t = 0; t < expected[k].length; t += 1) {
+                expected[k][t] = ref.convert(expected[k][t]);
+            }
+        }
+        batch.convert(settings, plugboards, messages);
+        for (int k = 0; k < lanes; k += 1) {
+            assertArrayEquals(expected[k], messages[k]);
+        }
+    }
+
+    @Test
+    public void checkScalarBatch() {
+        Machine m = navalMachine();
+        for (int lanes : new int[] {0, 1, 7, 64}) {
+            checkBatch(m, new MachineBatch(m, lanes), lanes, PAIRED_PLUGS);
+        }
+    }
+
+    @Test
+    public void checkCreatedBatch() {
+        Machine m = navalMachine();
+        for (int lanes : new int[] {1, 3, 33}) {
+            checkBatch(m, MachineBatch.create(m, lanes), lanes,
+                       PAIRED_PLUGS);
+        }
+    }
+
+    @Test
+    public void checkCyclicPlugboards() {
+        Machine m = navalMachine();
+        for (int lanes : new int[] {1, 7, 33}) {
+            checkBatch(m, new MachineBatch(m, lanes), lanes, CYCLIC_PLUGS);
+            checkBatch(m, MachineBatch.create(m, lanes), lanes,
+                       CYCLIC_PLUGS);
+        }
+    }
+
+    @Test
+    public void checkConvertBatch() {
+        Machine m = navalMachine();
+        m.setRotors("BCDE");
+        Machine before = m.copy(), ref = m.copy();
+        ref.setRotors("AXLE");
+        int[][] messages = {{0, 1, 2, 3, 4, 5}};
+        int[][] settings = {{0, 23, 11, 4}};
+        m.convertBatch(settings, new Permutation[1], messages);
+        for (int t = 0; t < 6; t += 1) {
+            assertEquals(ref.convert(t), messages[0][t]);
+        }
+        assertEquals(before.convert(0), m.convert(0));
+    }
+
+}
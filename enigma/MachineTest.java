@@ -1,9 +1,13 @@
 package enigma;
 import org.junit.Test;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import javax.tools.ToolProvider;
 import static org.junit.Assert.*;
 import static enigma.TestUtils.*;
 
@@ -82,6 +86,277 @@ public class MachineTest {
         assertEquals("Q", str3);
     }
 
+    @Test
+    public void convertStreamingTest() {
+        String[] a = {"I", "II", "III", "IV", "V"};
+        setRotor(a, NAVALA, "");
+        _allRotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        Machine m = new Machine(UPPER, 3, 2, _allRotors);
+        String[] b = {"B", "II", "I"};
+        String msg = "HELLO WORLD";
+        m.insertRotors(b);
+        m.setRotors("AA");
+        String expected = m.convert(msg);
+
+        m.setRotors("AA");
+        char[] out = new char[msg.length() + 2];
+        assertEquals(12, m.convert(msg, out, 2));
+        assertEquals(expected, new String(out, 2, 10));
+
+        m.setRotors("AA");
+        CharBuffer buf = CharBuffer.allocate(msg.length());
+        m.convert(CharBuffer.wrap(msg), buf);
+        buf.flip();
+        assertEquals(expected, buf.toString());
+
+        m.setRotors("AA");
+        StringBuilder sb = new StringBuilder();
+        m.convert(msg, sb);
+        assertEquals(expected, sb.toString());
+    }
+
+    @Test
+    public void convertBytesTest() {
+        String[] a = {"I", "II", "III", "IV", "V"};
+        setRotor(a, NAVALA, "");
+        _allRotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        Machine m = new Machine(UPPER, 3, 2, _allRotors);
+        String[] b = {"B", "II", "I"};
+        String msg = "HELLO WORLD";
+        byte[] in = msg.getBytes(StandardCharsets.ISO_8859_1);
+        m.insertRotors(b);
+        m.setRotors("AA");
+        String expected = m.convert(msg);
+
+        m.setRotors("AA");
+        byte[] out = new byte[in.length + 2];
+        assertEquals(12, m.convert(in, 0, in.length, out, 2));
+        assertEquals(expected,
+                     new String(out, 2, 10, StandardCharsets.ISO_8859_1));
+
+        m.setRotors("AA");
+        ByteBuffer buf = ByteBuffer.allocateDirect(4);
+        ByteBuffer src = ByteBuffer.wrap(in);
+        m.convert(src, buf);
+        assertEquals(0, buf.remaining());
+        assertEquals(4, src.position());
+        buf.flip();
+        byte[] got = new byte[4];
+        buf.get(got);
+        assertEquals(expected.substring(0, 4),
+                     new String(got, StandardCharsets.ISO_8859_1));
+
+        try {
+            m.convert(new byte[] {'a'}, 0, 1, out, 0);
+            fail("lower-case byte accepted");
+        } catch (EnigmaException excp) {
+            /* Ignore */
+        }
+    }
+
+    @Test
+    public void compositeCacheTest() {
+        String[] a = {"I", "II", "III", "IV", "V"};
+        setRotor(a, NAVALA, "E");
+        _allRotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        Machine m = new Machine(UPPER, 4, 3, _allRotors);
+        String[] b = {"B", "III", "II", "I"};
+        m.insertRotors(b);
+        m.setPlugboard(new Permutation("(AQ) (EP)", UPPER));
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            msg.append((char) ('A' + (i * 7) % 26));
+        }
+        m.setRotors("AXE");
+        String expected = m.convert(msg.toString());
+
+        m.setCompositeCache(64);
+        m.setRotors("AXE");
+        assertEquals(expected, m.convert(msg.toString()));
+        m.setRotors("AXE");
+        assertEquals(expected, m.convert(msg.toString()));
+        m.setCompositeCache(0);
+        m.setRotors("AXE");
+        assertEquals(expected, m.convert(msg.toString()));
+    }
+
+    @Test
+    public void compositeCacheBaseTest() {
+        Machine m = pluggedNavalMachine();
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 20000; i += 1) {
+            msg.append((char) ('A' + (i * 5) % 26));
+        }
+        String[] settings = {"AXEQ", "BXEQ", "AXEQ"};
+        String[] expected = new String[settings.length];
+        for (int k = 0; k < settings.length; k += 1) {
+            m.setRotors(settings[k]);
+            expected[k] = m.convert(msg.toString());
+        }
+        m.setCompositeCache(100);
+        for (int k = 0; k < settings.length; k += 1) {
+            m.setRotors(settings[k]);
+            assertEquals(settings[k], expected[k], m.convert(msg.toString()));
+        }
+    }
+
+    @Test
+    public void specializeTest() {
+        Machine m = pluggedNavalMachine();
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 3000; i += 1) {
+            msg.append((char) ('A' + (i * 11) % 26));
+        }
+        m.setRotors("AXEQ");
+        String expected = m.convert(msg.toString());
+        m.setPlugboard(new Permutation("(BC)", UPPER));
+        m.setRotors("AXEQ");
+        String replugged = m.convert(msg.toString());
+
+        m.setSpecialize(true);
+        assertEquals(ToolProvider.getSystemJavaCompiler() != null,
+                     m.specialized());
+        m.setPlugboard(new Permutation("(AQ) (EP)", UPPER));
+        m.setRotors("AXEQ");
+        assertEquals(expected, m.convert(msg.toString()));
+        m.setPlugboard(new Permutation("(BC)", UPPER));
+        m.setRotors("AXEQ");
+        assertEquals(replugged.substring(0, 1000),
+                     m.convert(msg.substring(0, 1000)));
+        Machine copy = m.copy();
+        assertEquals(m.specialized(), copy.specialized());
+        assertEquals(replugged.substring(1000),
+                     copy.convert(msg.substring(1000)));
+
+        m.insertRotors(new String[] {"B", "Beta", "I", "IV", "III"});
+        assertEquals(ToolProvider.getSystemJavaCompiler() != null,
+                     m.specialized());
+        m.setSpecialize(false);
+        assertFalse(m.specialized());
+    }
+
+    /** Return a naval machine B BETA III IV I with plugboard (AQ) (EP). */
+    private Machine pluggedNavalMachine() {
+        Machine m = navalMachine();
+        m.setPlugboard(new Permutation("(AQ) (EP)", UPPER));
+        return m;
+    }
+
+    @Test
+    public void skipTest() {
+        Machine m = pluggedNavalMachine();
+        String msg = "HELLOWORLD";
+        for (int n : new int[] {0, 1, 5, 17, 26 * 26 + 3, 20000}) {
+            m.setRotors("AXDH");
+            StringBuilder filler = new StringBuilder();
+            for (int i = 0; i < n; i += 1) {
+                filler.append('A');
+            }
+            m.convert(filler.toString());
+            String expected = m.convert(msg);
+            m.setRotors("AXDH");
+            m.skip(n);
+            assertEquals(expected, m.convert(msg));
+        }
+    }
+
+    @Test
+    public void longSkipTest() {
+        Machine m = pluggedNavalMachine();
+        long steps = 1_000_000_000_000L + 12345;
+        int period = 26 * 25 * 26;
+        m.setRotors("AXDH");
+        for (long k = 0; k < 2 * period + steps % period; k += 1) {
+            m.advanceRotors();
+        }
+        String expected = m.convert("HELLOWORLD");
+        m.setRotors("AXDH");
+        m.skip(steps);
+        assertEquals(expected, m.convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void nextStateTest() {
+        Machine m = pluggedNavalMachine();
+        Rotor[] r = m.slots().toArray(new Rotor[0]);
+        for (int s = 0; s < 26 * 26 * 26; s += 1) {
+            int[] setting = {0, s / 676, s / 26 % 26, s % 26};
+            m.setRotors(setting);
+            boolean middle = r[3].atNotch(), right = r[4].atNotch();
+            int[] expected = {
+                (setting[1] + (middle ? 1 : 0)) % 26,
+                (setting[2] + (middle || right ? 1 : 0)) % 26,
+                (setting[3] + 1) % 26
+            };
+            long state = m.positionState();
+            m.advanceRotors();
+            assertEquals(m.nextState(state), m.positionState());
+            for (int i = 0; i < 3; i += 1) {
+                assertEquals(expected[i], r[i + 2].setting());
+            }
+        }
+    }
+
+    @Test
+    public void internPlugboardTest() {
+        Machine m = pluggedNavalMachine();
+        Permutation p = m.internPlugboard("(AQ) (EP)");
+        assertSame(p, m.internPlugboard("(AQ)(EP)"));
+        assertSame(p, m.internPlugboard("(PE) (QA)"));
+        assertSame(p, m.copy().internPlugboard("(EP)(AQ)"));
+        assertNotSame(p, m.internPlugboard("(AQ)"));
+        assertEquals('Q', p.permute('A'));
+        assertEquals("(AQ)(EP)", p.canonical());
+    }
+
+    @Test
+    public void convertParallelTest() {
+        Machine m = pluggedNavalMachine();
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 3 * Machine.PARALLEL_CHUNK + 123; i += 1) {
+            msg.append(i % 11 == 0 ? ' ' : (char) ('A' + (i * 7) % 26));
+        }
+        m.setRotors("AEDQ");
+        String expected = m.convert(msg.toString());
+        String after = m.convert("AAAAA");
+        m.setRotors("AEDQ");
+        assertEquals(expected, m.convertParallel(msg.toString()));
+        assertEquals(after, m.convert("AAAAA"));
+    }
+
+    @Test
+    public void snapshotTest() {
+        Machine m = pluggedNavalMachine();
+        m.setRotors("AXDH");
+        m.convert("SOMEPREAMBLE");
+        Machine.Snapshot s = m.snapshot();
+        String expected = m.convert("HELLOWORLD");
+
+        m.insertRotors(new String[] {"B", "Beta", "I", "IV", "III"});
+        m.setRotors("QQQQ");
+        m.setPlugboard(new Permutation("(XY)", UPPER));
+        m.restore(s);
+        assertEquals(expected, m.convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void copyTest() {
+        Machine m = pluggedNavalMachine();
+        m.setRotors("AXDH");
+        Machine c = m.copy();
+        String expected = m.convert("HELLOWORLD");
+        assertEquals(expected, c.convert("HELLOWORLD"));
+        for (Rotor r : c.slots()) {
+            assertFalse(m.slots().contains(r));
+        }
+        Machine.Snapshot s = c.snapshot();
+        m.restore(s);
+        assertEquals(m.convert("MORE"), c.convert("MORE"));
+    }
+
     @Test
     public void testDoubleStep() {
         Alphabet ac = new CharacterRange('A', 'D');
@@ -141,6 +416,10 @@ public class MachineTest {
         mach.convert('a');
         assertEquals("ACDB", getSetting(ac, machineRotors));
         mach.convert('a');
+
+        mach.setRotors(setting);
+        mach.skip(21);
+        assertEquals("ACDB", getSetting(ac, machineRotors));
     }
 
     /** Helper method to get the String representation
@@ -1,12 +1,29 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
+import static java.nio.file.StandardOpenOption.*;
+
 import static enigma.EnigmaException.*;
 
 /** Enigma simulator.
@@ -19,12 +36,142 @@ public final class Main {
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Source of input messages when they are streamed a chunk at a
+     *  time, or null if they are read by lines from _input. */
+    private Reader _reader;
+
     /** Source of machine configuration. */
     private Scanner _config;
 
+    /** Name of the configuration file, which is loaded through
+     *  ConfigCache, or null if the configuration comes from _config. */
+    private String _configName;
+
+    /** Name under which the default configuration is registered. */
+    static final String DEFAULT_CONFIG = "";
+
+    /** Files of the named configurations given with --config, by
+     *  name. */
+    private LinkedHashMap<String, String> _configFiles =
+        new LinkedHashMap<>();
+
+    /** The machine of each configuration, by name, including
+     *  DEFAULT_CONFIG.  Each is built once and reused whenever a
+     *  settings line selects it. */
+    private HashMap<String, Machine> _machines = new HashMap<>();
+
+    /** True iff the configuration is to be compiled into the file named
+     *  _outputName rather than applied to messages. */
+    private boolean _compile;
+
+    /** Largest number of distinct settings lines whose parsed form is
+     *  kept. */
+    private static final int MAX_SETUPS = 1024;
+
+    /** Parsed settings lines, keyed by their text. */
+    private HashMap<String, Setup> _setups = new HashMap<>();
+
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
+    /** True iff input and output files are to be memory-mapped. */
+    private boolean _mapped;
+
+    /** True iff streamed input is to be converted in parallel. */
+    private boolean _parallel;
+
+    /** True iff machines are to use generated converters (see
+     *  Specialized). */
+    private boolean _specialize;
+
+    /** Name of the key sheet file given with --sheet, or null. */
+    private String _sheetName;
+
+    /** Key sheet for the default configuration whose entries settings
+     *  lines may select, or null. */
+    private KeySheet _sheet;
+
+    /** Destination of converted characters when converting a segment
+     *  for a Pipeline, or null. */
+    private StringBuilder _sink;
+
+    /** Names of the input and output files in mapped mode. */
+    private String _inputName, _outputName;
+
+    /** Number of bytes of the input file mapped at a time. */
+    private static final long MAP_WINDOW = 1L << 28;
+
+    /** Size in characters of the output buffer used by streamed
+     *  input. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    /** The machine supplied at construction or converting streamed
+     *  input. */
+    private Machine _machine;
+
+    /** True iff a settings line has been seen in streamed input. */
+    private boolean _isSetUp;
+
+    /** True iff the next character of streamed input starts a line. */
+    private boolean _lineStart = true;
+
+    /** True iff the last character of streamed input was a carriage
+     *  return. */
+    private boolean _lastCR;
+
+    /** Longest settings line allowed in streamed input. */
+    private static final int MAX_SETTINGS_LINE = 1 << 16;
+
+    /** The settings line being read from streamed input, or null if the
+     *  current line is not a settings line. */
+    private StringBuilder _settingsLine;
+
+    /** Number of characters printed so far on the current output line
+     *  of streamed input. */
+    private int _column;
+
+    /** Size of _run. */
+    private static final int RUN_BUFFER = 1 << 12;
+
+    /** Alphabet indices of message characters of streamed input
+     *  waiting to be converted together (see flushRun). */
+    private int[] _run = new int[RUN_BUFFER];
+
+    /** Number of indices in _run. */
+    private int _runLen;
+
+    /** Converted characters waiting to be written. */
+    private char[] _outBuf = new char[OUTPUT_BUFFER];
+
+    /** Number of characters in _outBuf. */
+    private int _outLen;
+
+    /** Number of characters in _outBuf, or in mapped mode bytes in
+     *  _outBytes, that precede the output of the current line of streamed
+     *  input (see discardLine). */
+    private int _lineOutput;
+
+    /** Length that _sink would have, were _outBuf added to it, where the
+     *  output of the current line of streamed input starts. */
+    private int _sinkLine;
+
+    /** Nanoseconds spent so far in nested stages while recording
+     *  statistics (see stopTimer). */
+    private long _nestedNanos;
+
+    /** Output file in mapped mode. */
+    private FileChannel _outChannel;
+
+    /** Encoded output waiting to be written to _outChannel. */
+    private ByteBuffer _outBytes;
+
+    /** In mapped mode, _alphabet as a ByteAlphabet, or null if it has
+     *  characters outside ISO-8859-1. */
+    private ByteAlphabet _bytes;
+
+    /** The ISO-8859-1 code of the next-line character, U+0085. */
+    private static final byte NEL = (byte) 0x85;
+
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
      *  ARGS[0] is the name of a configuration file.
@@ -33,7 +180,34 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *  The option --mapped, which must precede the file names and
+     *  requires all three of them, reads the input file through memory
+     *  mapping and writes the output file through a buffered channel.
+     *  Both files are then taken to be in ISO-8859-1.
+     *  The option --compile, which requires exactly two file names,
+     *  instead writes the configuration named by the first to the second
+     *  in compiled form (see ConfigCache), which may be used in place of
+     *  a text configuration.
+     *  The option --parallel, which cannot be combined with --mapped,
+     *  converts independent stretches of the input on several threads
+     *  (see Pipeline); the output is the same.
+     *  The option --stats records counts and stage timings (see Stats),
+     *  exposes them through JMX while running, and prints a summary to
+     *  the standard error on exit.
+     *  The option --specialize converts with code generated at run time
+     *  for each choice of rotors (see Specialized) where it can; the
+     *  output is the same.
+     *  The option --sheet FILE loads the key sheet in FILE, in binary
+     *  form (see KeySheet), for the configuration named by ARGS[0].  A
+     *  settings line "* #K" then sets that machine to entry K of the
+     *  sheet, numbered from 1.
+     *  The option --config NAME=FILE, which may be repeated, registers
+     *  the configuration in FILE under NAME.  A settings line whose
+     *  first item after the '*' is @NAME selects that configuration for
+     *  the messages that follow it; other settings lines select the
+     *  configuration named by ARGS[0].  Each configuration is read once,
+     *  before any input, and keeps its own machine. */
 
     public static void main(String... args) {
         try {
@@ -41,22 +215,83 @@ public final class Main {
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
+        } finally {
+            if (Stats.enabled()) {
+                System.err.print(Stats.STATS.getSummary());
+            }
         }
         System.exit(1);
     }
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            if (args[k].equals("--mapped")) {
+                _mapped = true;
+            } else if (args[k].equals("--compile")) {
+                _compile = true;
+            } else if (args[k].equals("--stats")) {
+                Stats.enable();
+            } else if (args[k].equals("--parallel")) {
+                _parallel = true;
+            } else if (args[k].equals("--specialize")) {
+                _specialize = true;
+            } else if (args[k].equals("--sheet")) {
+                k += 1;
+                if (k == args.length) {
+                    throw error("--sheet needs a file");
+                }
+                _sheetName = args[k];
+            } else if (args[k].equals("--config")) {
+                k += 1;
+                int eq = k < args.length ? args[k].indexOf('=') : -1;
+                if (eq <= 0 || eq == args[k].length() - 1) {
+                    throw error("--config needs NAME=FILE");
+                }
+                String name = args[k].substring(0, eq);
+                if (_configFiles.put(name, args[k].substring(eq + 1))
+                    != null) {
+                    throw error("configuration %s registered twice", name);
+                }
+            } else {
+                throw error("unknown option %s", args[k]);
+            }
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = args[0];
+
+        if (_compile) {
+            if (args.length != 2) {
+                throw error("--compile needs configuration and output files");
+            }
+            if (!_configFiles.isEmpty()) {
+                throw error("--config cannot be used with --compile");
+            }
+            _outputName = args[1];
+            return;
+        }
+
+        if (_mapped) {
+            if (_parallel) {
+                throw error("--parallel cannot be used with --mapped");
+            }
+            if (args.length != 3) {
+                throw error("--mapped needs input and output files");
+            }
+            _inputName = args[1];
+            _outputName = args[2];
+            return;
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _reader = getReader(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _reader = new InputStreamReader(System.in);
         }
 
         if (args.length > 2) {
@@ -64,12 +299,109 @@ public final class Main {
         } else {
             _output = System.out;
         }
+        if (Stats.enabled()) {
+            _output = new PrintStream(Stats.counting(_output), true);
+        }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** A Main that reads its configuration from CONFIG and messages from
+     *  INPUT, sending results to OUTPUT. */
+    Main(Scanner config, Scanner input, PrintStream output) {
+        _config = config;
+        _input = input;
+        _output = output;
+    }
+
+    /** A Main that applies MACHINE, which it may modify, to the messages
+     *  in INPUT, sending results to OUTPUT. */
+    Main(Machine machine, Scanner input, PrintStream output) {
+        _machine = machine;
+        _machines.put(DEFAULT_CONFIG, machine);
+        _alphabet = machine.alphabet();
+        _input = input;
+        _output = output;
+    }
+
+    /** A Main that applies MACHINE, which it may modify, to the messages
+     *  streamed from INPUT, sending results to OUTPUT. */
+    Main(Machine machine, Reader input, PrintStream output) {
+        _machine = machine;
+        _machines.put(DEFAULT_CONFIG, machine);
+        _alphabet = machine.alphabet();
+        _reader = input;
+        _output = output;
+    }
+
+    /** A Main that converts one segment of streamed input with
+     *  MACHINES, by configuration name, and key sheet SHEET (possibly
+     *  null), sending the results to SINK. */
+    private Main(HashMap<String, Machine> machines, KeySheet sheet,
+                 StringBuilder sink) {
+        _machines = machines;
+        _sheet = sheet;
+        _machine = machines.get(DEFAULT_CONFIG);
+        _alphabet = _machine.alphabet();
+        _sink = sink;
+    }
+
+    /** Convert SEG, a segment of streamed input, with MACHINES, by
+     *  configuration name, and key sheet SHEET (possibly null), appending
+     *  the results to its output.  Output of the lines before an error is
+     *  kept. */
+    static void convertSegment(HashMap<String, Machine> machines,
+                               KeySheet sheet, Pipeline.Segment seg) {
+        Main main = new Main(machines, sheet, seg._output);
+        if (seg._settings != null) {
+            main.select(seg._settings);
+            if (seg._state != null) {
+                main._machine.restore(seg._state);
+            } else {
+                main.apply(main._machine, seg._settings);
+                main._machine.skip(seg._skip);
+            }
+            main._isSetUp = true;
+        }
+        main._lineStart = seg._lineStart;
+        main._column = seg._column;
+        main._lastCR = seg._lastCR;
+        CharSequence text = seg._text;
+        try {
+            long start = main.startTimer();
+            for (int i = 0; i < text.length(); i += 1) {
+                main.feed(text.charAt(i));
+            }
+            main.stopTimer(Stats.Stage.CONVERT, start, false);
+            if (seg._last) {
+                main.endInput();
+            }
+        } catch (EnigmaException excp) {
+            main.discardLine();
+            throw excp;
+        } finally {
+            main.flushOutput();
+        }
+    }
+
+    /** Return the machine of MACHINES, by configuration name, selected
+     *  by the settings line SETTINGS, set according to it, using key
+     *  sheet SHEET (possibly null). */
+    static Machine settle(HashMap<String, Machine> machines, KeySheet sheet,
+                          String settings) {
+        Main main = new Main(machines, sheet, null);
+        main.select(settings);
+        main.apply(main._machine, settings);
+        return main._machine;
+    }
+
+    /** Return an Enigma machine configured from the contents of CONFIG. */
+    static Machine readConfig(Scanner config) {
+        return new Main(config, null, null).readConfig();
+    }
+
+    /** Return a Reader for the file named NAME. */
+    private Reader getReader(String name) {
         try {
-            return new Scanner(new File(name));
+            return new InputStreamReader(new FileInputStream(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -84,63 +416,542 @@ public final class Main {
         }
     }
 
-    /** Configure an Enigma machine from the contents of configuration
-     *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
+    /** Configure an Enigma machine (see configure) and apply it to the
+     *  messages in _input, sending the results to _output. */
     public void process() {
-        Machine m = readConfig();
+        if (_compile) {
+            compile();
+            return;
+        }
+        if (_mapped) {
+            processMapped();
+            return;
+        }
+        if (_reader != null && _parallel) {
+            processParallel();
+            return;
+        }
+        if (_reader != null) {
+            processStream();
+            return;
+        }
+        if (_machine == null) {
+            _machine = configure();
+        }
         boolean isSetUp = false;
         while (_input.hasNextLine()) {
             String line = _input.nextLine();
             if (line.length() == 0) {
                 printMessageLine("");
             } else if (line.charAt(0) == '*') {
-                setUp(m, line);
+                setUp(line);
                 isSetUp = true;
             } else if (!isSetUp) {
                 throw error("input file incorrectly formatted");
             } else {
-                String res = m.convert(line.toUpperCase());
+                long start = startTimer();
+                String res = _machine.convert(line.toUpperCase());
+                stopTimer(Stats.Stage.CONVERT, start, false);
                 printMessageLine(res);
             }
         }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+    /** Apply my machine, loading the configurations (see configure)
+     *  unless I was given one, to the messages read from _reader a chunk
+     *  at a time, sending the results to _output.  Memory use does not
+     *  grow with the length of message lines.  Output is written as the
+     *  buffer fills, so a slow consumer slows reading; the lines
+     *  converted before an error are still written (see discardLine). */
+    private void processStream() {
+        if (_machine == null) {
+            _machine = configure();
+        }
+        char[] chunk = new char[OUTPUT_BUFFER];
+        try {
+            int len;
+            while ((len = _reader.read(chunk)) != -1) {
+                long start = startTimer();
+                for (int i = 0; i < len; i += 1) {
+                    feed(chunk[i]);
+                }
+                stopTimer(Stats.Stage.CONVERT, start, false);
+            }
+            endInput();
+        } catch (IOException excp) {
+            throw error("could not read input");
+        } catch (EnigmaException excp) {
+            discardLine();
+            throw excp;
+        } finally {
+            flushOutput();
+        }
+    }
+
+    /** As for processStream, but converting on all available processors
+     *  with a Pipeline. */
+    private void processParallel() {
+        configure();
+        Pipeline pipeline =
+            new Pipeline(_machines, _sheet,
+                         Runtime.getRuntime().availableProcessors(), _output);
+        char[] chunk = new char[OUTPUT_BUFFER];
+        try {
+            int len;
+            while ((len = _reader.read(chunk)) != -1) {
+                pipeline.feed(chunk, len);
+            }
+            pipeline.finish();
+        } catch (IOException excp) {
+            throw error("could not read input");
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    /** Configure an Enigma machine (see configure) and apply it to the
+     *  messages in the file named _inputName, which is memory-mapped a
+     *  window at a time, writing the results to the file named
+     *  _outputName. */
+    private void processMapped() {
+        _machine = configure();
+        _bytes = _machine.byteAlphabet();
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName), READ);
+             FileChannel out = FileChannel.open(Paths.get(_outputName),
+                                                WRITE, CREATE,
+                                                TRUNCATE_EXISTING)) {
+            _outChannel = out;
+            _outBytes = ByteBuffer.allocateDirect(OUTPUT_BUFFER);
+            byte[] chunk = new byte[OUTPUT_BUFFER];
+            long size = in.size();
+            try {
+                for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                    MappedByteBuffer window =
+                        in.map(FileChannel.MapMode.READ_ONLY, pos,
+                               Math.min(MAP_WINDOW, size - pos));
+                    while (window.hasRemaining()) {
+                        int len = Math.min(chunk.length,
+                                           window.remaining());
+                        window.get(chunk, 0, len);
+                        long start = startTimer();
+                        feed(chunk, len);
+                        stopTimer(Stats.Stage.CONVERT, start, false);
+                    }
+                }
+                endInput();
+            } catch (EnigmaException excp) {
+                discardLine();
+                throw excp;
+            } finally {
+                flushOutput();
+            }
+        } catch (IOException excp) {
+            throw error("could not process %s into %s",
+                        _inputName, _outputName);
+        } finally {
+            _outChannel = null;
+        }
+    }
+
+    /** Process the next character, CH, of streamed input.  Settings
+     *  lines are collected and applied at their ends; message characters
+     *  are collected in _run, converted a run at a time and printed in
+     *  groups of five, just as printMessageLine does. */
+    private void feed(char ch) {
+        if (ch == '\n' && _lastCR) {
+            _lastCR = false;
+            return;
+        }
+        _lastCR = ch == '\r';
+        if (ch == '\r' || ch == '\n' || ch == '\u0085'
+            || ch == '\u2028' || ch == '\u2029') {
+            endLine();
+        } else if (_settingsLine != null) {
+            if (_settingsLine.length() == MAX_SETTINGS_LINE) {
+                throw error("settings line too long");
+            }
+            _settingsLine.append(ch);
+        } else {
+            if (_lineStart) {
+                _lineStart = false;
+                if (ch == '*') {
+                    _settingsLine = new StringBuilder("*");
+                    return;
+                } else if (!_isSetUp) {
+                    throw error("input file incorrectly formatted");
+                }
+            }
+            ch = Character.toUpperCase(ch);
+            if (ch != ' ') {
+                addToRun(_alphabet.toInt(ch));
+            }
+        }
+    }
+
+    /** Process the first LEN bytes of CHUNK, ISO-8859-1 input in mapped
+     *  mode, as feed would their characters.  When the current alphabet
+     *  is a ByteAlphabet, message characters are converted and written
+     *  as bytes through _bytes, without widening them to chars or
+     *  upper-casing them with Character.toUpperCase; everything else
+     *  goes through feed. */
+    private void feed(byte[] chunk, int len) {
+        for (int i = 0; i < len; i += 1) {
+            byte b = chunk[i];
+            ByteAlphabet alpha = _bytes;
+            if (alpha == null || _lineStart || _settingsLine != null
+                || b == '\r' || b == '\n' || b == NEL) {
+                feed((char) (b & 0xff));
+            } else if (b != ' ') {
+                int c = alpha.fold(b);
+                if (c == -1) {
+                    feed((char) (b & 0xff));
+                } else {
+                    addToRun(c);
+                }
+            }
+        }
+    }
+
+    /** Add the alphabet index C of a message character to _run,
+     *  converting the run if it is full. */
+    private void addToRun(int c) {
+        if (_runLen == _run.length) {
+            flushRun();
+        }
+        _run[_runLen] = c;
+        _runLen += 1;
+    }
+
+    /** Convert the message characters in _run with _machine and add
+     *  them to the output in groups of five, as bytes through _bytes
+     *  when it is set. */
+    private void flushRun() {
+        int len = _runLen;
+        _runLen = 0;
+        _machine.convert(_run, 0, len);
+        for (int i = 0; i < len; i += 1) {
+            if (_column != 0 && _column % 5 == 0) {
+                emit(' ');
+            }
+            if (_bytes != null) {
+                emit(_bytes.toByte(_run[i]));
+            } else {
+                emit(_alphabet.toChar(_run[i]));
+            }
+            _column += 1;
+        }
+    }
+
+    /** Finish the current line of streamed input. */
+    private void endLine() {
+        flushRun();
+        if (_settingsLine != null) {
+            setUp(_settingsLine.toString());
+            _isSetUp = true;
+            _settingsLine = null;
+        } else {
+            emit('\r');
+            emit('\n');
+        }
+        _lineOutput = _outChannel != null ? _outBytes.position() : _outLen;
+        if (_sink != null) {
+            _sinkLine = _sink.length() + _outLen;
+        }
+        _lineStart = true;
+        _column = 0;
+    }
+
+    /** Drop the output of the current line of streamed input that has not
+     *  been written yet, after an error in that line, so that, as when
+     *  input is read a line at a time, a line in error produces no
+     *  output.  Only a line whose output outgrew the output buffer, or
+     *  for a Pipeline, one cut across segments, can already have been
+     *  partly written. */
+    private void discardLine() {
+        _runLen = 0;
+        if (_outChannel != null) {
+            _outBytes.position(_lineOutput);
+        } else if (_sink != null && _sinkLine < _sink.length()) {
+            _sink.setLength(_sinkLine);
+            _outLen = 0;
+        } else {
+            _outLen = _lineOutput;
+        }
+    }
+
+    /** Finish streamed input, completing any unterminated last line, and
+     *  write out any buffered output. */
+    private void endInput() {
+        if (!_lineStart || _settingsLine != null) {
+            endLine();
+        }
+        flushOutput();
+    }
+
+    /** Add CH to the output.  In mapped mode, it must be in
+     *  ISO-8859-1. */
+    private void emit(char ch) {
+        if (_outChannel != null) {
+            if (ch > 0xff) {
+                throw error("character '%c' not in ISO-8859-1", ch);
+            }
+            emit((byte) ch);
+            return;
+        }
+        if (_outLen == _outBuf.length) {
+            flushOutput();
+        }
+        _outBuf[_outLen] = ch;
+        _outLen += 1;
+    }
+
+    /** Add the ISO-8859-1 character B to the output in mapped mode. */
+    private void emit(byte b) {
+        if (!_outBytes.hasRemaining()) {
+            flushOutput();
+        }
+        _outBytes.put(b);
+    }
+
+    /** Write out the characters in _outBuf, or in mapped mode, the bytes
+     *  in _outBytes, after those still in _run. */
+    private void flushOutput() {
+        if (_runLen > 0) {
+            flushRun();
+        }
+        long start = startTimer();
+        if (_outChannel != null) {
+            _outBytes.flip();
+            int len = _outBytes.remaining();
+            try {
+                while (_outBytes.hasRemaining()) {
+                    _outChannel.write(_outBytes);
+                }
+            } catch (IOException excp) {
+                throw error("could not write %s", _outputName);
+            }
+            _outBytes.clear();
+            if (Stats.enabled()) {
+                Stats.bytes(len);
+            }
+        } else if (_sink != null) {
+            _sink.append(_outBuf, 0, _outLen);
+        } else {
+            _output.append(CharBuffer.wrap(_outBuf, 0, _outLen));
+        }
+        _outLen = 0;
+        _lineOutput = 0;
+        stopTimer(Stats.Stage.OUTPUT, start, true);
+    }
+
+    /** Return a start time for timing a stage with stopTimer: the
+     *  current time less the time spent so far in nested stages, or 0
+     *  if statistics are off. */
+    private long startTimer() {
+        return Stats.enabled() ? System.nanoTime() - _nestedNanos : 0;
+    }
+
+    /** Record in Stats the time taken by STAGE since START, as returned
+     *  by startTimer, not counting time spent meanwhile in nested
+     *  stages.  If NESTED, STAGE is itself nested, so that its time is
+     *  not counted in any stage enclosing it. */
+    private void stopTimer(Stats.Stage stage, long start, boolean nested) {
+        if (Stats.enabled()) {
+            long end = System.nanoTime() - _nestedNanos;
+            Stats.time(stage, start, end);
+            if (nested) {
+                _nestedNanos += end - start;
+            }
+        }
+    }
+
+    /** Write the configuration in compiled form to the file named
+     *  _outputName. */
+    private void compile() {
+        Machine m = configure();
+        try (OutputStream out =
+             new BufferedOutputStream(new FileOutputStream(_outputName))) {
+            ConfigCache.write(m, out);
+        } catch (IOException excp) {
+            throw error("could not write %s", _outputName);
+        }
+    }
+
+    /** Return the machine described by the configuration: loaded
+     *  through ConfigCache if a configuration file was named, and
+     *  otherwise read from _config. */
+    private Machine configure() {
+        long start = startTimer();
+        Machine m;
+        if (_configName == null) {
+            m = readConfig();
+        } else {
+            m = ConfigCache.load(_configName);
+            _alphabet = m.alphabet();
+        }
+        _machines.put(DEFAULT_CONFIG, m);
+        if (_sheetName != null) {
+            _sheet = KeySheet.load(m, _sheetName);
+        }
+        for (Map.Entry<String, String> e : _configFiles.entrySet()) {
+            _machines.put(e.getKey(), ConfigCache.load(e.getValue()));
+        }
+        for (Machine machine : _machines.values()) {
+            if (_specialize) {
+                machine.setSpecialize(true);
+            }
+            if (Stats.enabled()) {
+                Stats.tableBytes(machine.tableBytes());
+            }
+        }
+        stopTimer(Stats.Stage.CONFIG, start, false);
+        return m;
+    }
+
+    /** Return the name of the configuration selected by the settings
+     *  line SETTINGS: NAME if its first item after the '*' is @NAME,
+     *  and otherwise DEFAULT_CONFIG.  Only consulted when configurations
+     *  were registered with --config (see routed). */
+    static String configName(String settings) {
+        int k = 1, n = settings.length();
+        while (k < n && Character.isWhitespace(settings.charAt(k))) {
+            k += 1;
+        }
+        if (k == n || settings.charAt(k) != '@') {
+            return DEFAULT_CONFIG;
+        }
+        int start = k + 1;
+        while (k < n && !Character.isWhitespace(settings.charAt(k))) {
+            k += 1;
+        }
+        return settings.substring(start, k);
+    }
+
+    /** Return true iff settings lines may select a configuration with
+     *  @NAME, which is so only when configurations beyond the default
+     *  were registered.  Otherwise an item @NAME is a rotor name. */
+    private boolean routed() {
+        return _machines.size() > 1;
+    }
+
+    /** Make the machine of the configuration selected by SETTINGS my
+     *  current machine. */
+    private void select(String settings) {
+        String name = routed() ? configName(settings) : DEFAULT_CONFIG;
+        Machine m = _machines.get(name);
+        if (m == null) {
+            throw error("unknown configuration %s", name);
+        }
+        if (m != _machine) {
+            _machine = m;
+            _alphabet = m.alphabet();
+            _bytes = _outChannel == null ? null : m.byteAlphabet();
+        }
+    }
+
+    /** Select the machine for SETTINGS and set it according to the
+     *  specification given on SETTINGS, which must have the format
+     *  specified in the assignment, optionally with @NAME after the
+     *  '*' when routed().  Settings lines seen before are not parsed again. */
+    private void setUp(String settings) {
+        long start = startTimer();
+        select(settings);
+        apply(_machine, settings);
+        if (Stats.enabled()) {
+            Stats.settingsLine();
+        }
+        stopTimer(Stats.Stage.SETUP, start, true);
+    }
+
+    /** Set M according to SETTINGS, as for setUp, without recording
+     *  statistics. */
+    private void apply(Machine M, String settings) {
+        Setup setup = _setups.get(settings);
+        if (setup == null) {
+            setup = parseSetup(M, settings);
+            if (_setups.size() < MAX_SETUPS) {
+                _setups.put(settings, setup);
+            }
+        }
+        M.insertRotors(setup._names);
+        M.setRotors(setup._setting);
+        M.setPlugboard(setup._plugboard);
+    }
+
+    /** Return the settings of M given by the settings line SETTINGS. */
+    private Setup parseSetup(Machine M, String settings) {
         Scanner s = new Scanner(settings);
         String start = s.next();
+        if (start.equals("*") && routed() && s.hasNext("@.*")) {
+            s.next();
+        }
+        if (start.equals("*") && s.hasNext("#.*")) {
+            return sheetSetup(M, s.next(), s);
+        }
         String[] names = new String[M.numRotors()];
         int count = M.numPawls();
         for (int i = 0; i < M.numRotors(); i++) {
             String rotorName = s.next().toUpperCase();
-            boolean matches = false;
-            for (Rotor a: M.getAllRotor()) {
-                if (rotorName.equals(a.name().toUpperCase())) {
-                    if (a.rotates()) {
-                        count -= 1;
-                    }
-                    matches = true;
-                }
-            }
-            if (matches) {
-                names[i] = rotorName;
-            } else {
+            int k = M.rotorIndex(rotorName);
+            if (k < 0) {
                 throw error("Rotor not in machine");
             }
+            if (M.availableRotor(k).rotates()) {
+                count -= 1;
+            }
+            names[i] = rotorName;
         }
-        M.insertRotors(names);
         String set = s.next();
         if (set.length() != M.numRotors() - 1 || count < 0) {
             throw error("Wrong number of arguments");
         }
-        M.setRotors(set);
-        String plugboard = "";
+        StringBuilder plugboard = new StringBuilder();
         while (s.hasNext()) {
-            plugboard += s.next();
+            plugboard.append(s.next());
         }
-        M.setPlugboard(new Permutation(plugboard, _alphabet));
+        return new Setup(names, set,
+                         M.internPlugboard(plugboard.toString()));
+    }
+
+    /** Return the settings of M given by ITEM, "#K", which selects entry
+     *  K of _sheet and must be the last item on the settings line being
+     *  read by S. */
+    private Setup sheetSetup(Machine M, String item, Scanner s) {
+        if (_sheet == null) {
+            throw error("no key sheet for %s", item);
+        }
+        if (M != _machines.get(DEFAULT_CONFIG)) {
+            throw error("key sheet is for the default configuration");
+        }
+        if (s.hasNext()) {
+            throw error("Wrong number of arguments");
+        }
+        int k;
+        try {
+            k = Integer.parseInt(item.substring(1));
+        } catch (NumberFormatException excp) {
+            throw error("no key sheet entry %s", item);
+        }
+        return new Setup(_sheet.rotors(k), _sheet.setting(k),
+                         _sheet.plugboard(k));
+    }
+
+    /** A parsed settings line. */
+    private static class Setup {
+        /** Settings with rotors NAMES at SETTING and plugboard
+         *  PLUGBOARD. */
+        Setup(String[] names, String setting, Permutation plugboard) {
+            _names = names;
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Names of the rotors, reflector first. */
+        private final String[] _names;
+        /** Initial setting of the non-reflecting rotors. */
+        private final String _setting;
+        /** Plugboard. */
+        private final Permutation _plugboard;
     }
 
     /** Return an Enigma machine configured from the contents of configuration
@@ -215,6 +1026,7 @@ public final class Main {
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
+        long start = startTimer();
         for (int i = 0; i < msg.length(); i++) {
             if (i != 0 && (i % 5) == 0) {
                 _output.append(' ');
@@ -223,5 +1035,6 @@ public final class Main {
             _output.append(msg.charAt(i));
         }
         _output.append("\r\n");
+        stopTimer(Stats.Stage.OUTPUT, start, true);
     }
 }
@@ -0,0 +1,173 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the routing of settings lines to
+ *  named configurations in Main.
+ *  @author Terrance Wang
+ */
+public class MainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** A configuration on A-Z. */
+    private static final String LETTERS =
+        "A-Z 4 2\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** A configuration on the digits. */
+    private static final String DIGITS =
+        "0123456789 3 1\n"
+        + "D M37 (0372) (165) (89)\n"
+        + "E N (013) (2468)\n"
+        + "R R (01) (23) (45) (67) (89)\n";
+
+    /** Return a new temporary file holding CONTENTS. */
+    private File temp(String contents) throws IOException {
+        File f = File.createTempFile("enigma", ".txt");
+        f.deleteOnExit();
+        Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    /** Return the output of running Main with options and configuration
+     *  file given by ARGS on INPUT. */
+    private String run(String input, String... args) throws IOException {
+        File in = temp(input), out = temp("");
+        String[] all = new String[args.length + 2];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = in.getPath();
+        all[args.length + 1] = out.getPath();
+        new Main(all).process();
+        return new String(Files.readAllBytes(out.toPath()),
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Return the output of running Main with options and configuration
+     *  file given by ARGS on INPUT, which must cause an error. */
+    private String runError(String input, String... args)
+        throws IOException {
+        File in = temp(input), out = temp("");
+        String[] all = new String[args.length + 2];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = in.getPath();
+        all[args.length + 1] = out.getPath();
+        try {
+            new Main(all).process();
+            fail("erroneous input accepted");
+        } catch (EnigmaException excp) {
+            /* Ignore */
+        }
+        return new String(Files.readAllBytes(out.toPath()),
+                          StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void checkSheet() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        KeySheet sheet = KeySheet.generate(Main.readConfig(
+            new Scanner(LETTERS)), 20, 4, new Random(3));
+        File bin = temp("");
+        sheet.write(bin.getPath());
+        String msg = "\nHELLO WORLD\nagain\n";
+        String expected = run(sheet.settingsLine(7) + msg
+                              + sheet.settingsLine(20) + msg, letters);
+        String input = "* #7" + msg + "*  #20" + msg;
+        assertEquals(expected,
+                     run(input, "--sheet", bin.getPath(), letters));
+        assertEquals(expected, run(input, "--parallel", "--sheet",
+                                   bin.getPath(), letters));
+    }
+
+    @Test
+    public void checkConfigName() {
+        assertEquals(Main.DEFAULT_CONFIG, Main.configName("* B Beta I II"));
+        assertEquals(Main.DEFAULT_CONFIG, Main.configName("*"));
+        assertEquals("x", Main.configName("* @x B Beta I II"));
+        assertEquals("x", Main.configName("*@x B Beta I II"));
+        assertEquals("long", Main.configName("* \t@long\tR D 4"));
+    }
+
+    @Test
+    public void checkRouting() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        String digits = temp(DIGITS).getPath();
+        String a = "* B Beta I II AXL (AQ) (EP)\nHELLO WORLD\nagain\n";
+        String b = "* R E D 47\n0123456789 99\n\n";
+        String expected = run(a, letters) + run(b, digits)
+            + run(a, letters) + run(b, digits);
+        String input = a + b.replace("* ", "* @dig ")
+            + a.replace("* ", "* @let ") + b.replace("*", "*@dig");
+        String[] opts = {"--config", "dig=" + digits,
+                         "--config", "let=" + letters};
+        assertEquals(expected, run(input, opts[0], opts[1], opts[2],
+                                   opts[3], letters));
+        assertEquals(expected, run(input, "--parallel", opts[0], opts[1],
+                                   opts[2], opts[3], letters));
+        assertEquals(expected, run(input, "--mapped", opts[0], opts[1],
+                                   opts[2], opts[3], letters));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownConfiguration() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        run("* @dig B Beta I II AXL\nHELLO\n", "--config", "let=" + letters,
+            letters);
+    }
+
+    @Test
+    public void checkAtRotorName() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        String at = temp(LETTERS.replace("B R (AE)", "@B R (AE)")).getPath();
+        String msg = " Beta I II AXL (AQ) (EP)\nHELLO WORLD\n";
+        String expected = run("* B" + msg, letters);
+        assertEquals(expected, run("* @B" + msg, at));
+        assertEquals(expected, run("* @B" + msg, "--parallel", at));
+        assertEquals(expected, run("* @B" + msg, "--mapped", at));
+    }
+
+    @Test
+    public void checkMappedError() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        String good = "* B Beta I II AXL\nHELLO WORLD\nHELLO\n";
+        String expected = run(good, letters);
+        assertTrue(expected.length() > 0);
+        assertEquals(expected, runError(good + "* B Beta I II XX\nHELLO\n",
+                                        "--mapped", letters));
+    }
+
+    @Test
+    public void checkErrorLineDropped() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        String good = "* B Beta I II AXL\nHELLO WORLD\nHELLO\n"
+            .repeat(2000);
+        String expected = run(good, letters);
+        String bad = good + "GOODBYE WORLD1 AGAIN\nMORE\n";
+        assertEquals(expected, runError(bad, letters));
+        assertEquals(expected, runError(bad, "--parallel", letters));
+        assertEquals(expected, runError(bad, "--mapped", letters));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicateConfiguration() throws IOException {
+        String letters = temp(LETTERS).getPath();
+        run("", "--config", "x=" + letters, "--config", "x=" + letters,
+            letters);
+    }
+}
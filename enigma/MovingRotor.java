@@ -15,10 +15,29 @@ class MovingRotor extends Rotor {
 
     private String _notches;
 
+    /** Entry S is stepsToNotch() at setting S. */
+    private int[] _notchDistance;
+
+    /** Entry S is atNotch() at setting S. */
+    private boolean[] _notchMask;
+
     /** Constructs MovingRotor with NAME, PERM, and NOTCHES.*/
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
+        int n = size();
+        _notchDistance = new int[n];
+        _notchMask = new boolean[n];
+        int next = -1;
+        for (int k = 2 * n - 1; k >= 0; k -= 1) {
+            if (_notches.indexOf(alphabet().toChar(k % n)) != -1) {
+                next = k;
+                _notchMask[k % n] = true;
+            }
+            if (k < n) {
+                _notchDistance[k] = next == -1 ? -1 : next - k;
+            }
+        }
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -29,8 +48,17 @@ class MovingRotor extends Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
-        char current = permutation().alphabet().toChar(setting());
-        return _notches.indexOf(current) != -1;
+        return _notchMask[setting()];
+    }
+
+    @Override
+    boolean[] notchMask() {
+        return _notchMask;
+    }
+
+    @Override
+    int stepsToNotch() {
+        return _notchDistance[setting()];
     }
 
     /** Returns notches.*/
@@ -40,6 +68,7 @@ class MovingRotor extends Rotor {
 
     @Override
     void advance() {
-        set(permutation().wrap(setting() + 1));
+        int next = setting() + 1;
+        position(next == size() ? 0 : next);
     }
 }
@@ -71,4 +71,39 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkLargeAlphabetRotor() {
+        int n = Rotor.SQUARE_TABLE_LIMIT + 72;
+        StringBuilder vals = new StringBuilder(), cycle = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            vals.append((char) ('\u0100' + i));
+            cycle.append((char) ('\u0100' + (7 * i) % n));
+        }
+        Alphabet alph = new ExtendedCharacterRange(vals.toString());
+        Permutation perm = new Permutation("(" + cycle + ")", alph);
+        rotor = new MovingRotor("Big", perm, "");
+        assertEquals(2L * 4 * 2 * n, rotor.tableBytes());
+        for (int s = 0; s < n; s += 13) {
+            rotor.set(s);
+            for (int p = 0; p < n; p += 1) {
+                int q = perm.permute(perm.wrap(p + s));
+                assertEquals(perm.wrap(q - s), rotor.convertForward(p));
+                assertEquals(p, rotor.convertBackward(perm.wrap(q - s)));
+            }
+        }
+    }
+
+    @Test
+    public void checkSharedNotchMask() {
+        Rotor beta = new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER));
+        Rotor gamma = new FixedRotor("Gamma",
+                new Permutation(NAVALA.get("Gamma"), UPPER));
+        assertSame(beta.notchMask(), gamma.notchMask());
+        assertEquals(26, beta.notchMask().length);
+        for (boolean notch : beta.notchMask()) {
+            assertFalse(notch);
+        }
+    }
+
 }
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -13,6 +15,14 @@ class Permutation {
     /** Cycles of this permutation. */
     private String _cycles;
 
+    /** Index of the image of each character index under this
+     *  permutation. */
+    private int[] _forward;
+
+    /** Index of the preimage of each character index under this
+     *  permutation. */
+    private int[] _inverse;
+
     /** Set this Permutation to that specified by CYCLES, a string in the
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
@@ -21,6 +31,51 @@ class Permutation {
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
         _cycles = cycles;
+        compile();
+    }
+
+    /** A Permutation of ALPHABET written as CYCLES, which maps index I
+     *  to FORWARD[I].  FORWARD must be a permutation of the indices of
+     *  ALPHABET agreeing with CYCLES, which is not parsed again.  Used
+     *  for configurations that have already been checked. */
+    Permutation(String cycles, Alphabet alphabet, int[] forward) {
+        int n = alphabet.size();
+        if (forward.length != n) {
+            throw error("permutation table has wrong size");
+        }
+        _alphabet = alphabet;
+        _cycles = cycles;
+        _forward = forward.clone();
+        _inverse = new int[n];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < n; i += 1) {
+            int y = _forward[i];
+            if (y < 0 || y >= n || _inverse[y] != -1) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[y] = i;
+        }
+    }
+
+    /** Return my cycles in canonical form: each cycle of two or more
+     *  characters, starting with its first character in the alphabet,
+     *  in alphabetical order of those characters, without whitespace.
+     *  Equal permutations have equal canonical forms. */
+    String canonical() {
+        StringBuilder result = new StringBuilder();
+        boolean[] seen = new boolean[size()];
+        for (int x = 0; x < size(); x += 1) {
+            if (seen[x] || _forward[x] == x) {
+                continue;
+            }
+            result.append('(');
+            for (int y = x; !seen[y]; y = _forward[y]) {
+                seen[y] = true;
+                result.append(_alphabet.toChar(y));
+            }
+            result.append(')');
+        }
+        return result.toString();
     }
 
     /** Return all the cycles in permutation. */
@@ -32,6 +87,7 @@ class Permutation {
      *  c0c1...cm. */
     public void addCycle(String cycle) {
         _cycles = _cycles + " " + cycle;
+        compile();
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -48,52 +104,83 @@ class Permutation {
         return _alphabet.size();
     }
 
-    /** Given a char C, return the FORWARD/backward char in cycles. */
-    char wrapCycle(char c, int forward) {
-        int ind = _cycles.indexOf(c);
-        if (ind == -1) {
-            return c;
-        } else {
-            if (_cycles.charAt(ind + forward) == ')'
-                    || _cycles.charAt(ind + forward) == '(') {
-                int a = ind;
-                while (_cycles.charAt(a) != '(' && _cycles.charAt(a) != ')') {
-                    a -= forward;
+    /** Compile _cycles into the _forward and _inverse tables.  As with
+     *  a scan of the cycle string, only the first occurrence of a
+     *  character determines where it maps, and, as there, characters
+     *  outside my alphabet are ignored. */
+    private void compile() {
+        int n = size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            _forward[i] = _inverse[i] = i;
+        }
+        int[] cycle = new int[_cycles.length()];
+        int len = -1;
+        for (int k = 0; k < _cycles.length(); k += 1) {
+            char c = _cycles.charAt(k);
+            if (Character.isWhitespace(c)) {
+                continue;
+            } else if (c == '(') {
+                if (len != -1) {
+                    throw error("nested cycle in permutation");
+                }
+                len = 0;
+            } else if (c == ')') {
+                if (len == -1) {
+                    throw error("unmatched ')' in permutation");
                 }
-                return _cycles.charAt(a + forward);
+                for (int i = 0; i < len; i += 1) {
+                    int x = cycle[i];
+                    if (!seen[x]) {
+                        seen[x] = true;
+                        _forward[x] = cycle[(i + 1) % len];
+                        _inverse[x] = cycle[(i + len - 1) % len];
+                    }
+                }
+                len = -1;
+            } else if (len == -1) {
+                throw error("character '%c' outside of cycle", c);
+            } else if (!_alphabet.contains(c)) {
+                continue;
             } else {
-                return _cycles.charAt(ind + forward);
+                cycle[len] = _alphabet.toInt(c);
+                len += 1;
             }
         }
+        if (len != -1) {
+            throw error("unterminated cycle in permutation");
+        }
     }
 
-
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char a = _alphabet.toChar(p);
-        char newA = wrapCycle(a, 1);
-        return _alphabet.toInt(newA);
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char a = _alphabet.toChar(c);
-        char newA = wrapCycle(a, -1);
-        return _alphabet.toInt(newA);
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        return wrapCycle(p, 1);
+        if (!_alphabet.contains(p)) {
+            return p;
+        }
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     int invert(char c) {
-        char newC = wrapCycle(c, -1);
-        return (int) newC;
+        if (!_alphabet.contains(c)) {
+            return c;
+        }
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
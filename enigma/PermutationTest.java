@@ -80,4 +80,23 @@ public class PermutationTest {
         assertEquals(false, perm1.derangement());
     }
 
+    @Test
+    public void checkAddCycle() {
+        permu = new Permutation("(ABCD)", UPPER);
+        permu.addCycle("(XYZ)");
+        checkPerm("added cycle", UPPER_STRING,
+                  "BCDAEFGHIJKLMNOPQRSTUVWYZX");
+        permu = new Permutation("(AB)(CD)", new CharacterRange('A', 'F'));
+        assertEquals(3, permu.permute(2));
+        assertEquals(1, permu.invert(0));
+        assertEquals(5, permu.permute(5));
+    }
+
+    @Test
+    public void checkForeignCharacters() {
+        permu = new Permutation("(ab) (CD) (E!F)", UPPER);
+        checkPerm("foreign characters", UPPER_STRING,
+                  "ABDCFEGHIJKLMNOPQRSTUVWXYZ");
+    }
+
 }
@@ -0,0 +1,320 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Converts streamed input in parallel.  A reader stage (feed) splits
+ *  the input into segments, preferably just before settings lines, since
+ *  each settings line resets the machine, but also within long messages.
+ *  Each segment records the state of the input where it starts: the last
+ *  settings line, how many message characters follow it, and the
+ *  position in the current line.  When a segment starts within a message,
+ *  the reader stage also records the state of the machine there: it
+ *  keeps its own copies of the machines, applies each settings line once
+ *  and advances only by the characters since the previous cut, so the
+ *  work of finding start states grows linearly with the input.  A pool
+ *  of threads converts segments, each on a set of Machine copies, one per
+ *  configuration, taken from a pool of such sets: it selects the machine
+ *  for that settings line and either restores the recorded state or
+ *  applies the line and skips ahead.  An ordered writer stage sends the
+ *  output of each segment to the output in input order.  At most a fixed
+ *  number of segments are in progress at once, so memory use is
+ *  bounded.
+ *  @author Terrance Wang
+ */
+class Pipeline {
+
+    /** Segments are cut before settings lines once they have at least
+     *  this many characters. */
+    static final int MIN_SEGMENT = 1 << 12;
+
+    /** Segments are cut wherever possible once they have this many
+     *  characters. */
+    static final int MAX_SEGMENT = 1 << 18;
+
+    /** A pipeline converting with copies of TEMPLATE on THREADS threads
+     *  and writing to OUTPUT. */
+    Pipeline(Machine template, int threads, PrintStream output) {
+        this(Collections.singletonMap(Main.DEFAULT_CONFIG, template),
+             threads, output);
+    }
+
+    /** A pipeline converting with copies of the machines in TEMPLATES,
+     *  keyed by configuration name (see Main.configName), on THREADS
+     *  threads and writing to OUTPUT. */
+    Pipeline(Map<String, Machine> templates, int threads,
+             PrintStream output) {
+        this(templates, null, threads, output);
+    }
+
+    /** As for Pipeline(TEMPLATES, THREADS, OUTPUT), with settings lines
+     *  able to select entries of the key sheet SHEET, if not null, for
+     *  the default configuration. */
+    Pipeline(Map<String, Machine> templates, KeySheet sheet, int threads,
+             PrintStream output) {
+        _templates = templates;
+        _sheet = sheet;
+        _output = output;
+        _window = 2 * threads;
+        _pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "enigma-pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+        _current = new Segment(null, 0, null, 0, true, false);
+    }
+
+    /** Process the next LEN characters of input, in CHUNK. */
+    void feed(char[] chunk, int len) {
+        for (int i = 0; i < len; i += 1) {
+            char ch = chunk[i];
+            int size = _current._text.length();
+            if (_settingsLine == null
+                && (size >= MAX_SEGMENT
+                    || size >= MIN_SEGMENT && _lineStart && ch == '*')) {
+                submit(false);
+                _current = new Segment(_lastSettings, _skip, state(),
+                                       _column, _lineStart, _lastCR);
+            }
+            _current._text.append(ch);
+            scan(ch);
+        }
+    }
+
+    /** Finish the input, and wait for and write all remaining
+     *  output. */
+    void finish() {
+        submit(true);
+        while (!_pending.isEmpty()) {
+            write();
+        }
+    }
+
+    /** Stop all threads. */
+    void close() {
+        _pool.shutdownNow();
+    }
+
+    /** Return the state of the machine _skip message characters after
+     *  settings line _lastSettings, or null if there are none or the
+     *  state cannot be found or recorded here.  It is found by advancing
+     *  _cursor from the previous call for the same settings line (the
+     *  same String, so that a repeated line starts afresh). */
+    private Machine.Snapshot state() {
+        if (_lastSettings == null || _skip == 0) {
+            return null;
+        }
+        try {
+            if (_cursor == null || _cursorSettings != _lastSettings) {
+                if (_cursorMachines == null) {
+                    _cursorMachines = copies();
+                }
+                _cursor = Main.settle(_cursorMachines, _sheet,
+                                      _lastSettings);
+                _cursorSettings = _lastSettings;
+                _cursorSkip = 0;
+            }
+            _cursor.skip(_skip - _cursorSkip);
+            _cursorSkip = _skip;
+            return _cursor.snapshot();
+        } catch (EnigmaException | NoSuchElementException excp) {
+            /* The segment replays the line and reports any error. */
+            _cursor = null;
+            return null;
+        }
+    }
+
+    /** Return a new set of copies of my templates, by configuration
+     *  name. */
+    private HashMap<String, Machine> copies() {
+        HashMap<String, Machine> machines = new HashMap<>();
+        for (Map.Entry<String, Machine> e : _templates.entrySet()) {
+            machines.put(e.getKey(), e.getValue().copy());
+        }
+        return machines;
+    }
+
+    /** Track the state of the input after character CH, as Main.feed
+     *  does. */
+    private void scan(char ch) {
+        if (ch == '\n' && _lastCR) {
+            _lastCR = false;
+            return;
+        }
+        _lastCR = ch == '\r';
+        if (ch == '\r' || ch == '\n' || ch == '\u0085'
+            || ch == '\u2028' || ch == '\u2029') {
+            if (_settingsLine != null) {
+                _lastSettings = _settingsLine.toString();
+                _settingsLine = null;
+                _skip = 0;
+            }
+            _lineStart = true;
+            _column = 0;
+        } else if (_settingsLine != null) {
+            _settingsLine.append(ch);
+        } else {
+            if (_lineStart) {
+                _lineStart = false;
+                if (ch == '*') {
+                    _settingsLine = new StringBuilder("*");
+                    return;
+                }
+            }
+            if (ch != ' ') {
+                _skip += 1;
+                _column += 1;
+            }
+        }
+    }
+
+    /** Start converting the current segment, which is the LAST, first
+     *  writing out finished segments if too many are in progress. */
+    private void submit(boolean last) {
+        Segment seg = _current;
+        seg._last = last;
+        while (_pending.size() >= _window) {
+            write();
+        }
+        _pending.add(_pool.submit(() -> convert(seg)));
+    }
+
+    /** Return SEG, converted on a set of machines from my pool. */
+    private Segment convert(Segment seg) {
+        HashMap<String, Machine> machines = _machines.poll();
+        if (machines == null) {
+            machines = copies();
+        }
+        try {
+            Main.convertSegment(machines, _sheet, seg);
+        } catch (EnigmaException excp) {
+            seg._error = excp;
+        } finally {
+            _machines.add(machines);
+        }
+        seg._text = null;
+        return seg;
+    }
+
+    /** Wait for the oldest segment in progress and write its output,
+     *  throwing its error, if any. */
+    private void write() {
+        Segment seg;
+        try {
+            seg = _pending.remove().get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new AssertionError(excp.getCause());
+        }
+        long start = Stats.enabled() ? System.nanoTime() : 0;
+        _output.append(seg._output);
+        if (Stats.enabled()) {
+            Stats.time(Stats.Stage.OUTPUT, start, System.nanoTime());
+        }
+        if (seg._error != null) {
+            throw seg._error;
+        }
+    }
+
+    /** A stretch of input, and the state of the input where it
+     *  starts. */
+    static class Segment {
+        /** A segment starting after settings line SETTINGS (null if
+         *  none) and SKIP message characters following it, where the
+         *  machine is in STATE (null if not recorded), with COLUMN
+         *  message characters before it on its line, which it starts
+         *  iff LINESTART, and just after a carriage return iff
+         *  LASTCR. */
+        Segment(String settings, long skip, Machine.Snapshot state,
+                int column, boolean lineStart, boolean lastCR) {
+            _settings = settings;
+            _skip = skip;
+            _state = state;
+            _column = column;
+            _lineStart = lineStart;
+            _lastCR = lastCR;
+        }
+
+        /** The last settings line before me, or null. */
+        final String _settings;
+        /** Number of message characters between _settings and me. */
+        final long _skip;
+        /** The state of the machine where I start, or null if it must be
+         *  found by applying _settings and skipping _skip characters. */
+        final Machine.Snapshot _state;
+        /** Number of message characters on my first line before me. */
+        final int _column;
+        /** True iff I start at the start of a line. */
+        final boolean _lineStart;
+        /** True iff the character before me is a carriage return. */
+        final boolean _lastCR;
+        /** True iff I end the input. */
+        boolean _last;
+        /** My input, until converted. */
+        StringBuilder _text = new StringBuilder();
+        /** My output. */
+        final StringBuilder _output = new StringBuilder();
+        /** The error found in converting me, or null. */
+        EnigmaException _error;
+    }
+
+    /** Machines from which converting machines are copied, by
+     *  configuration name. */
+    private final Map<String, Machine> _templates;
+    /** Key sheet for the default configuration, or null. */
+    private final KeySheet _sheet;
+    /** Copies of my templates used by the reader stage to find the
+     *  states where segments start, or null until needed. */
+    private HashMap<String, Machine> _cursorMachines;
+    /** The machine of _cursorMachines set by _cursorSettings and
+     *  advanced by _cursorSkip message characters, or null. */
+    private Machine _cursor;
+    /** The settings line last applied to _cursor. */
+    private String _cursorSettings;
+    /** Number of message characters _cursor has advanced since
+     *  _cursorSettings. */
+    private long _cursorSkip;
+    /** Sets of converting machines not in use, each holding a copy of
+     *  each template, by configuration name. */
+    private final ConcurrentLinkedQueue<HashMap<String, Machine>> _machines =
+        new ConcurrentLinkedQueue<>();
+    /** Threads converting segments. */
+    private final ExecutorService _pool;
+    /** Largest number of segments in progress. */
+    private final int _window;
+    /** Segments in progress, in input order. */
+    private final ArrayDeque<Future<Segment>> _pending = new ArrayDeque<>();
+    /** Destination of output. */
+    private final PrintStream _output;
+    /** Segment being read. */
+    private Segment _current;
+
+    /** The settings line being read, or null. */
+    private StringBuilder _settingsLine;
+    /** The last complete settings line, or null. */
+    private String _lastSettings;
+    /** Message characters read since _lastSettings. */
+    private long _skip;
+    /** Message characters read on the current line. */
+    private int _column;
+    /** True iff the next character starts a line. */
+    private boolean _lineStart = true;
+    /** True iff the last character was a carriage return. */
+    private boolean _lastCR;
+}
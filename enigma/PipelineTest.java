@@ -0,0 +1,123 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for Pipeline.
+ *  @author Terrance Wang
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Return LEN random message characters, with occasional blanks. */
+    private String message(Random random, int len) {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < len; k += 1) {
+            result.append(random.nextInt(8) == 0 ? ' '
+                          : (char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /** Return the output of converting INPUT with a Pipeline of THREADS
+     *  threads fed in chunks of CHUNK characters. */
+    private String pipelined(String input, int threads, int chunk) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Pipeline pipeline =
+            new Pipeline(navalMachine(), threads, new PrintStream(bytes));
+        try {
+            for (int k = 0; k < input.length(); k += chunk) {
+                int len = Math.min(chunk, input.length() - k);
+                char[] buffer = new char[len];
+                input.getChars(k, k + len, buffer, 0);
+                pipeline.feed(buffer, len);
+            }
+            pipeline.finish();
+        } finally {
+            pipeline.close();
+        }
+        return bytes.toString();
+    }
+
+    /** Return the output of converting INPUT a line at a time. */
+    private String sequential(String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Main(navalMachine(), new Scanner(input),
+                 new PrintStream(bytes)).process();
+        return bytes.toString();
+    }
+
+    @Test
+    public void checkSegmentsMatchSequential() {
+        Random random = new Random(20);
+        StringBuilder input = new StringBuilder();
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n",
+            "* B Beta I III IV QZJA\n",
+            "* B Beta IV I III AAAA (AZ)\n",
+        };
+        for (int k = 0; k < 60; k += 1) {
+            input.append(settings[k % settings.length]);
+            int lines = random.nextInt(4);
+            for (int i = 0; i < lines; i += 1) {
+                input.append(message(random, random.nextInt(3000)));
+                input.append('\n');
+            }
+            if (k % 20 == 7) {
+                input.append('\n');
+                input.append(message(random, 300000)).append('\n');
+            }
+        }
+        String expected = sequential(input.toString());
+        assertEquals(expected, pipelined(input.toString(), 3, 1 << 16));
+        assertEquals(expected, pipelined(input.toString(), 1, 997));
+    }
+
+    @Test
+    public void checkLongMessagesRepeatedSettings() {
+        Random random = new Random(30);
+        String settings = "* B Beta III IV I AXLE (HQ) (EX)\n";
+        StringBuilder input = new StringBuilder();
+        for (int k = 0; k < 3; k += 1) {
+            input.append(settings);
+            input.append(message(random, 3 * Pipeline.MAX_SEGMENT + 17));
+            input.append('\n');
+            input.append(message(random, Pipeline.MAX_SEGMENT)).append('\n');
+        }
+        String expected = sequential(input.toString());
+        assertEquals(expected, pipelined(input.toString(), 2, 1 << 16));
+    }
+
+    @Test
+    public void checkErrorAfterOutput() {
+        Random random = new Random(5);
+        String good = "* B Beta III IV I AXLE\n"
+            + message(random, 20000) + "\n";
+        String input = good + "* B Beta III IV NONE AXLE\nHELLO\n";
+        String expected = sequential(good);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Pipeline pipeline =
+            new Pipeline(navalMachine(), 2, new PrintStream(bytes));
+        try {
+            pipeline.feed(input.toCharArray(), input.length());
+            pipeline.finish();
+            fail("bad rotor name not detected");
+        } catch (EnigmaException excp) {
+            assertEquals(expected, bytes.toString());
+        } finally {
+            pipeline.close();
+        }
+    }
+}
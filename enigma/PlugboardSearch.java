@@ -0,0 +1,383 @@
+package enigma;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A search for the plugboard of a machine whose rotors are known, by
+ *  hill climbing (or simulated annealing) from several starting
+ *  plugboards in parallel.
+ *
+ *  The rotors and reflector of the machine at message position T form
+ *  a fixed permutation S_T, computed once for each T.  With plugboard P
+ *  held as an array, the decryption of ciphertext character C at T is
+ *  P(S_T(P(C))).  Each step of the climb changes the connections of at
+ *  most four characters, so only the positions whose ciphertext
+ *  character, or whose character on leaving the rotors, is one of those
+ *  need to be decrypted again, and only the nearby stretches of the
+ *  decryption need to be scored again (see Scorer.rescore).
+ *  @author Terrance Wang
+ */
+class PlugboardSearch {
+
+    /** Print the best plugboard for a ciphertext, as specified by ARGS,
+     *  where 4 <= ARGS.length <= 5.  ARGS[0] names a configuration file,
+     *  loaded through ConfigCache as by Main, ARGS[1] a file of
+     *  ciphertext, ARGS[2] is the rotors to use, separated by blanks, and
+     *  ARGS[3] their setting.  ARGS[4], if present, names a file of
+     *  sample plaintext whose trigram frequencies are used for scoring;
+     *  otherwise the index of coincidence is used. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4 || args.length > 5) {
+                throw error("usage: java enigma.PlugboardSearch CONFIG "
+                            + "CIPHERTEXT ROTORS SETTING [CORPUS]");
+            }
+            Machine machine = ConfigCache.load(args[0]);
+            machine.insertRotors(args[2].trim().split("\\s+"));
+            machine.setRotors(args[3]);
+            Scorer scorer = args.length > 4
+                ? Scorer.ngrams(machine.alphabet(),
+                                RotorSearch.read(args[4]), 3)
+                : Scorer.indexOfCoincidence(machine.alphabet().size());
+            Candidate best =
+                new PlugboardSearch(machine, scorer, DEFAULT_RESTARTS,
+                                    DEFAULT_STEPS)
+                .search(RotorSearch.read(args[1]));
+            System.out.printf("%12.6f  %s%n", best.score(), best);
+        } catch (IOException | EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Default number of starting plugboards. */
+    static final int DEFAULT_RESTARTS = 32;
+    /** Default number of steps in each climb. */
+    static final int DEFAULT_STEPS = 20000;
+
+    /** A search for the plugboard of MACHINE, whose rotors must be in
+     *  place and set to their positions at the start of the message,
+     *  judging decryptions by SCORER.  It makes RESTARTS climbs of
+     *  STEPS steps each. */
+    PlugboardSearch(Machine machine, Scorer scorer, int restarts,
+                    int steps) {
+        if (restarts < 1 || steps < 0) {
+            throw error("bad search limits");
+        }
+        _machine = machine;
+        _scorer = scorer;
+        _restarts = restarts;
+        _steps = steps;
+    }
+
+    /** Set the starting temperature of each climb to TEMPERATURE, which
+     *  falls steadily to 0 over the climb.  A step that lowers the
+     *  score by D is taken with probability exp(-D / temperature).  The
+     *  default, 0, gives pure hill climbing. */
+    void setTemperature(double temperature) {
+        _temperature = temperature;
+    }
+
+    /** Use SEED to choose the starting plugboards and steps. */
+    void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /** Return the best decryption of CIPHERTEXT found, whitespace in
+     *  which is ignored. */
+    Candidate search(String ciphertext) {
+        Machine m = _machine.copy();
+        int size = m.alphabet().size();
+        _cipher = RotorSearch.encode(m.alphabet(), ciphertext);
+        _scramblers = new int[_cipher.length * size];
+        for (int t = 0; t < _cipher.length; t += 1) {
+            m.advanceRotors();
+            m.scrambler(_scramblers, t * size);
+        }
+        _where = new int[size + 1];
+        for (int c : _cipher) {
+            _where[c + 1] += 1;
+        }
+        for (int x = 0; x < size; x += 1) {
+            _where[x + 1] += _where[x];
+        }
+        _at = new int[_cipher.length];
+        int[] fill = Arrays.copyOf(_where, size);
+        for (int i = 0; i < _cipher.length; i += 1) {
+            _at[fill[_cipher[i]]++] = i;
+        }
+
+        Climber best =
+            ForkJoinPool.commonPool().invoke(new ClimbTask(0, _restarts));
+        return candidate(best._plug, best._score);
+    }
+
+    /** Return a candidate for my machine's rotors with plugboard PLUG,
+     *  an involution of alphabet indices, and score SCORE. */
+    private Candidate candidate(int[] plug, double score) {
+        Alphabet alpha = _machine.alphabet();
+        StringBuilder cycles = new StringBuilder();
+        for (int x = 0; x < plug.length; x += 1) {
+            if (plug[x] > x) {
+                cycles.append('(').append(alpha.toChar(x))
+                    .append(alpha.toChar(plug[x])).append(')');
+            }
+        }
+        String[] rotors = new String[_machine.numRotors()];
+        char[] setting = new char[rotors.length - 1];
+        int k = 0;
+        for (Rotor r : _machine.slots()) {
+            rotors[k] = r.name();
+            if (k > 0) {
+                setting[k - 1] = alpha.toChar(r.setting());
+            }
+            k += 1;
+        }
+        return new Candidate(rotors, new String(setting),
+                             new Permutation(cycles.toString(), alpha),
+                             score);
+    }
+
+    /** Makes climbs LO up to HI, returning the best result. */
+    private class ClimbTask extends RecursiveTask<Climber> {
+        /** A task making climbs LO up to HI. */
+        ClimbTask(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected Climber compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) / 2;
+                ClimbTask left = new ClimbTask(_lo, mid);
+                left.fork();
+                Climber right = new ClimbTask(mid, _hi).compute();
+                Climber other = left.join();
+                return other._score >= right._score ? other : right;
+            }
+            Climber climber = new Climber(_lo);
+            climber.climb();
+            return climber;
+        }
+
+        /** Range of climbs. */
+        private final int _lo, _hi;
+    }
+
+    /** The state of one climb: a plugboard and the decryption under
+     *  it. */
+    private class Climber {
+        /** A climb numbered RESTART, starting with no connections if
+         *  RESTART is 0, and otherwise from random ones. */
+        Climber(int restart) {
+            int size = _machine.alphabet().size(), len = _cipher.length;
+            _random = new SplittableRandom(_seed + restart * SEED_STRIDE);
+            _plug = new int[size];
+            for (int x = 0; x < size; x += 1) {
+                _plug[x] = x;
+            }
+            for (int k = restart == 0 ? 0 : _random.nextInt(size / 2 + 1);
+                 k > 0; k -= 1) {
+                int a = _random.nextInt(size), b = _random.nextInt(size);
+                if (_plug[a] == a && _plug[b] == b) {
+                    _plug[a] = b;
+                    _plug[b] = a;
+                }
+            }
+            _exits = new int[len];
+            _text = new int[len];
+            _members = new int[size][];
+            _count = new int[size];
+            _slot = new int[len];
+            for (int x = 0; x < size; x += 1) {
+                _members[x] = new int[4];
+            }
+            for (int i = 0; i < len; i += 1) {
+                int y = _scramblers[i * size + _plug[_cipher[i]]];
+                _exits[i] = y;
+                join(i, y);
+                _text[i] = _plug[y];
+            }
+            _score = _scorer.score(_text, len);
+            _mark = new int[len];
+            _changed = new int[size];
+            _pos = new int[len];
+            _old = new int[len];
+        }
+
+        /** Make _steps attempts to improve my plugboard. */
+        void climb() {
+            int size = _plug.length;
+            int[] letters = new int[4], was = new int[4];
+            _bestPlug = _plug.clone();
+            _bestScore = _score;
+            for (int step = 0; step < _steps; step += 1) {
+                int a = _random.nextInt(size), b = _random.nextInt(size);
+                if (a == b) {
+                    continue;
+                }
+                int n = 0;
+                letters[n++] = a;
+                letters[n++] = b;
+                if (_plug[a] != a && _plug[a] != b) {
+                    letters[n++] = _plug[a];
+                }
+                if (_plug[b] != b && _plug[b] != a) {
+                    letters[n++] = _plug[b];
+                }
+                for (int k = 0; k < n; k += 1) {
+                    was[k] = _plug[letters[k]];
+                }
+                double before = _score;
+                if (_plug[a] == b) {
+                    _plug[a] = a;
+                    _plug[b] = b;
+                } else {
+                    _plug[_plug[a]] = _plug[a];
+                    _plug[_plug[b]] = _plug[b];
+                    _plug[a] = b;
+                    _plug[b] = a;
+                }
+                update(letters, n);
+                double temp = _temperature * (_steps - step) / _steps;
+                if (_score < before
+                    && (temp <= 0.0 || _random.nextDouble()
+                        >= Math.exp((_score - before) / temp))) {
+                    for (int k = 0; k < n; k += 1) {
+                        _plug[letters[k]] = was[k];
+                    }
+                    update(letters, n);
+                }
+                if (_score > _bestScore) {
+                    _bestScore = _score;
+                    _bestPlug = _plug.clone();
+                }
+            }
+            _plug = _bestPlug;
+            _score = _bestScore;
+        }
+
+        /** Decrypt again the positions affected by a change in the
+         *  connections of LETTERS[0 .. N-1], whose new connections are
+         *  already in _plug, and rescore. */
+        private void update(int[] letters, int n) {
+            int size = _plug.length;
+            _stamp += 1;
+            int count = 0;
+            for (int k = 0; k < n; k += 1) {
+                int x = letters[k];
+                _changed[x] = _stamp;
+                for (int e = _where[x]; e < _where[x + 1]; e += 1) {
+                    count = mark(_at[e], count);
+                }
+                for (int e = 0; e < _count[x]; e += 1) {
+                    count = mark(_members[x][e], count);
+                }
+            }
+            Arrays.sort(_pos, 0, count);
+            for (int k = 0; k < count; k += 1) {
+                int i = _pos[k];
+                _old[k] = _text[i];
+                if (_changed[_cipher[i]] == _stamp) {
+                    int y = _scramblers[i * size + _plug[_cipher[i]]];
+                    if (y != _exits[i]) {
+                        leave(i, _exits[i]);
+                        join(i, y);
+                        _exits[i] = y;
+                    }
+                }
+                _text[i] = _plug[_exits[i]];
+            }
+            _score = _scorer.rescore(_text, _text.length, _score,
+                                     _pos, _old, count);
+        }
+
+        /** Add position I to _pos, numbering COUNT so far, unless already
+         *  there, and return the new number. */
+        private int mark(int i, int count) {
+            if (_mark[i] != _stamp) {
+                _mark[i] = _stamp;
+                _pos[count] = i;
+                count += 1;
+            }
+            return count;
+        }
+
+        /** Record that position I leaves the rotors as character Y. */
+        private void join(int i, int y) {
+            if (_count[y] == _members[y].length) {
+                _members[y] = Arrays.copyOf(_members[y], 2 * _count[y]);
+            }
+            _slot[i] = _count[y];
+            _members[y][_count[y]++] = i;
+        }
+
+        /** Forget that position I leaves the rotors as character Y. */
+        private void leave(int i, int y) {
+            int last = _members[y][--_count[y]];
+            _members[y][_slot[i]] = last;
+            _slot[last] = _slot[i];
+        }
+
+        /** Source of random choices. */
+        private final SplittableRandom _random;
+        /** My plugboard: _plug[X] is the character connected to X. */
+        private int[] _plug;
+        /** Character leaving the rotors at each position. */
+        private final int[] _exits;
+        /** Current decryption. */
+        private final int[] _text;
+        /** _members[Y][0 .. _count[Y]-1] are the positions whose
+         *  character leaves the rotors as Y, in no particular order. */
+        private final int[][] _members;
+        /** Number of positions in each _members list. */
+        private final int[] _count;
+        /** Index of each position in its _members list. */
+        private final int[] _slot;
+        /** Positions marked in the current update have _mark equal to
+         *  _stamp, as do characters in _changed whose connections
+         *  changed. */
+        private final int[] _mark, _changed;
+        /** Stamp of the current update. */
+        private int _stamp;
+        /** Positions changed in the current update, and their previous
+         *  decryptions. */
+        private final int[] _pos, _old;
+        /** Score of _text. */
+        private double _score;
+        /** Best plugboard seen during the climb. */
+        private int[] _bestPlug;
+        /** Score of _bestPlug. */
+        private double _bestScore;
+    }
+
+    /** Spacing of the random seeds of successive climbs. */
+    private static final long SEED_STRIDE = 0x9E3779B97F4A7C15L;
+
+    /** Machine whose plugboard is sought. */
+    private final Machine _machine;
+    /** Judge of decryptions. */
+    private final Scorer _scorer;
+    /** Number of climbs. */
+    private final int _restarts;
+    /** Steps per climb. */
+    private final int _steps;
+    /** Starting temperature of each climb. */
+    private double _temperature;
+    /** Base random seed. */
+    private long _seed;
+    /** Ciphertext being decrypted, as alphabet indices. */
+    private int[] _cipher;
+    /** The scrambler at position T maps X to
+     *  _scramblers[T * alphabet size + X]. */
+    private int[] _scramblers;
+    /** _at[_where[X] .. _where[X + 1]-1] are the positions holding
+     *  ciphertext character X. */
+    private int[] _where, _at;
+}
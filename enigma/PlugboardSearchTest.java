@@ -0,0 +1,98 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.RotorSearchTest.*;
+
+/** The suite of all JUnit tests for PlugboardSearch.
+ *  @author Terrance Wang
+ */
+public class PlugboardSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** English text, sharing no sentence with PLAIN, on which to train
+     *  n-gram scorers. */
+    static final String CORPUS =
+        "It was late in the autumn when the travellers reached the village "
+        + "at the edge of the mountains. The road behind them had been long "
+        + "and hard, and the horses were tired. An old woman came out of the "
+        + "first house and asked them where they had come from and what they "
+        + "wanted. They told her that they were looking for a place to rest "
+        + "for the night, and that they would pay for food and a warm room. "
+        + "She said that her son kept an inn at the other end of the street, "
+        + "and that he would be glad of the business, since few people came "
+        + "that way so close to winter. The inn was a low building of grey "
+        + "stone with a thatched roof, and there was a fire burning in the "
+        + "great hall. The innkeeper was a tall man with a red beard. He "
+        + "brought them bread and cheese and a jug of cider, and while they "
+        + "ate he asked them for news of the country below. There was not "
+        + "much to tell. The harvest had been poor in the south, the price "
+        + "of grain had risen, and there were rumours of trouble on the "
+        + "northern border. The innkeeper shook his head and said that it "
+        + "was always the same: when the harvest failed, the soldiers came, "
+        + "and when the soldiers came, the people suffered. After supper the "
+        + "travellers sat by the fire and talked of their plans. They meant "
+        + "to cross the pass before the snow closed it, and to reach the "
+        + "city on the far side within a week. One of them had a brother "
+        + "there who was a merchant, and who had promised to help them find "
+        + "work. The others were less certain of their welcome, but they "
+        + "agreed that anything was better than staying where they were. "
+        + "In the morning the sky was clear and cold. They paid the "
+        + "innkeeper, thanked him for his kindness, and set out along the "
+        + "track that climbed towards the pass. For most of the day they "
+        + "walked in silence, saving their breath for the steep places. "
+        + "By evening they could see the summit above them, white against "
+        + "the darkening sky, and they made their camp in the shelter of a "
+        + "great rock. That night the wind rose and it began to snow. They "
+        + "huddled together under their blankets and listened to the storm, "
+        + "and each of them wondered whether they would ever see the city.";
+
+    /** Return a machine with rotors B III I at DM and no plugboard. */
+    private Machine setMachine() {
+        Machine m = smallMachine();
+        m.insertRotors(new String[] {"B", "III", "I"});
+        m.setRotors("DM");
+        return m;
+    }
+
+    @Test
+    public void checkRescore() {
+        Alphabet alpha = smallMachine().alphabet();
+        Scorer scorer = Scorer.ngrams(alpha, CORPUS, 3);
+        int[] text = RotorSearch.encode(alpha, PLAIN);
+        double score = scorer.score(text, text.length);
+        int[] pos = {0, 1, 7, 8, text.length - 1};
+        int[] old = new int[pos.length];
+        for (int k = 0; k < pos.length; k += 1) {
+            old[k] = text[pos[k]];
+            text[pos[k]] = (text[pos[k]] + 3 * k + 1) % 26;
+        }
+        assertEquals(scorer.score(text, text.length),
+                     scorer.rescore(text, text.length, score,
+                                    pos, old, pos.length), 1e-6);
+    }
+
+    @Test
+    public void checkRecoversPlugboard() {
+        Machine m = setMachine();
+        Permutation plugboard =
+            new Permutation("(AQ) (EL) (TZ) (BN) (HR)", m.alphabet());
+        m.setPlugboard(plugboard);
+        String cipher = m.convert(PLAIN);
+        m = setMachine();
+        Scorer scorer = Scorer.ngrams(m.alphabet(), CORPUS, 3);
+        PlugboardSearch search = new PlugboardSearch(m, scorer, 8, 4000);
+        Candidate best = search.search(cipher);
+        assertEquals("* B III I DM (AQ)(BN)(EL)(HR)(TZ)",
+                     best.toString());
+        m.setPlugboard(best.plugboard());
+        assertEquals(PLAIN, m.convert(cipher));
+    }
+
+}
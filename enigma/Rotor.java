@@ -1,11 +1,13 @@
 package enigma;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import static enigma.EnigmaException.*;
 
 /** Superclass that represents a rotor in the enigma machine.
  *  @author Terrance Wang
  */
-class Rotor {
+class Rotor implements Cloneable {
     /** My name. */
     private String _name;
 
@@ -15,11 +17,89 @@ class Rotor {
     /** My setting as the index of a char in alphabet. */
     private int _setting;
 
-    /** A rotor named NAME whose permutation is given by PERM. */
+    /** Largest alphabet size for which I keep a full table of wirings,
+     *  one row per setting.  Larger alphabets use a single shifted
+     *  table, keeping memory linear in the alphabet size. */
+    static final int SQUARE_TABLE_LIMIT = 128;
+
+    /** The size of my alphabet. */
+    private final int _size;
+
+    /** Notch masks without notches, shared by all rotors that never
+     *  reach a notch, by alphabet size. */
+    private static final ConcurrentHashMap<Integer, boolean[]> NO_NOTCHES =
+        new ConcurrentHashMap<>();
+
+    /** For small alphabets, _forwardRows[S][P] and _backwardRows[S][P]
+     *  are the forward and backward conversions of P at setting S.
+     *  Otherwise null. */
+    private int[][] _forwardRows, _backwardRows;
+
+    /** The rows of _forwardRows and _backwardRows for my current
+     *  setting, or null for large alphabets. */
+    private int[] _forwardRow, _backwardRow;
+
+    /** For large alphabets, entry K of _forwardWiring (_backwardWiring)
+     *  is the image of K modulo _size under my permutation (its
+     *  inverse), for 0 <= K < 2 * _size.  Otherwise null. */
+    private int[] _forwardWiring, _backwardWiring;
+
+    /** A rotor named NAME whose permutation is given by PERM.  The
+     *  conversion tables are built from PERM as it is now; later changes
+     *  to PERM are not seen by the rotor. */
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
-        set(0);
+        _size = perm.size();
+        if (_size <= SQUARE_TABLE_LIMIT) {
+            buildRows();
+        } else {
+            buildWiring();
+        }
+        position(0);
+    }
+
+    /** Fill in _forwardRows and _backwardRows from my permutation. */
+    private void buildRows() {
+        _forwardRows = new int[_size][_size];
+        _backwardRows = new int[_size][_size];
+        for (int s = 0; s < _size; s += 1) {
+            for (int p = 0; p < _size; p += 1) {
+                int q = _permutation.wrap(p + s);
+                _forwardRows[s][p] =
+                    _permutation.wrap(_permutation.permute(q) - s);
+                _backwardRows[s][p] =
+                    _permutation.wrap(_permutation.invert(q) - s);
+            }
+        }
+    }
+
+    /** Fill in _forwardWiring and _backwardWiring from my permutation. */
+    private void buildWiring() {
+        _forwardWiring = new int[2 * _size];
+        _backwardWiring = new int[2 * _size];
+        for (int k = 0; k < 2 * _size; k += 1) {
+            _forwardWiring[k] = _permutation.permute(k % _size);
+            _backwardWiring[k] = _permutation.invert(k % _size);
+        }
+    }
+
+    /** Return the number of bytes used by my conversion tables. */
+    long tableBytes() {
+        if (_forwardRows != null) {
+            return 2L * Integer.BYTES * _size * _size;
+        }
+        return 2L * Integer.BYTES * 2 * _size;
+    }
+
+    /** Make SETTING, which must be in the range 0..size()-1, my current
+     *  setting, regardless of whether I can be set or advanced. */
+    void position(int setting) {
+        _setting = setting;
+        if (_forwardRows != null) {
+            _forwardRow = _forwardRows[setting];
+            _backwardRow = _backwardRows[setting];
+        }
     }
 
     /** Return my name. */
@@ -59,31 +139,33 @@ class Rotor {
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        _setting = permutation().wrap(posn);
+        position(permutation().wrap(posn));
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = _permutation.alphabet().toInt(cposn);
+        position(_permutation.alphabet().toInt(cposn));
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation.
      *  Takes in index of alphabet and returns index of alphabet */
     int convertForward(int p) {
-        p = _permutation.wrap(p + _setting);
-        char a = _permutation.alphabet().toChar(p);
-        a = _permutation.permute(a);
-        return _permutation.wrap(_permutation.alphabet().toInt(a) - _setting);
+        if (_forwardRow != null) {
+            return _forwardRow[p];
+        }
+        int r = _forwardWiring[p + _setting] - _setting;
+        return r < 0 ? r + _size : r;
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        e = _permutation.wrap(e + _setting);
-        char a = _permutation.alphabet().toChar(e);
-        a = (char) _permutation.invert(a);
-        return _permutation.wrap(_permutation.alphabet().toInt(a) - _setting);
+        if (_backwardRow != null) {
+            return _backwardRow[e];
+        }
+        int r = _backwardWiring[e + _setting] - _setting;
+        return r < 0 ? r + _size : r;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -92,6 +174,32 @@ class Rotor {
         return false;
     }
 
+    /** Return an array whose entry S is true iff atNotch() would be
+     *  true at setting S.  The result must not be modified.  By default,
+     *  one array with no notches, shared by all such rotors with
+     *  alphabets of my size, so that masks compared by identity (see
+     *  Machine.freezeStepping) match. */
+    boolean[] notchMask() {
+        return NO_NOTCHES.computeIfAbsent(_size, boolean[]::new);
+    }
+
+    /** Return the number of times I must advance from my current setting
+     *  before atNotch() is true (0 if it already is), or -1 if it never
+     *  will be. */
+    int stepsToNotch() {
+        return -1;
+    }
+
+    /** Return a new rotor with my name, wiring and current setting.  The
+     *  copy shares my conversion tables, but advances independently. */
+    Rotor copy() {
+        try {
+            return (Rotor) clone();
+        } catch (CloneNotSupportedException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -0,0 +1,291 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack on an Enigma configuration: tries every
+ *  legal choice and order of rotors and every rotor setting, keeping the
+ *  decryptions that score best.  The search is spread over all cores.
+ *  @author Terrance Wang
+ */
+class RotorSearch {
+
+    /** Print the best settings for a ciphertext, as specified by ARGS,
+     *  where 2 <= ARGS.length <= 4.  ARGS[0] names a configuration file,
+     *  loaded through ConfigCache as by Main, and ARGS[1] a file of
+     *  ciphertext.  ARGS[2], if present, is the number of candidates to
+     *  report (default 10).  ARGS[3], if present, names a file of sample
+     *  plaintext whose trigram frequencies are used for scoring;
+     *  otherwise the index of coincidence is used. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2 || args.length > 4) {
+                throw error("usage: java enigma.RotorSearch CONFIG "
+                            + "CIPHERTEXT [K [CORPUS]]");
+            }
+            Machine machine = ConfigCache.load(args[0]);
+            int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            Scorer scorer = args.length > 3
+                ? Scorer.ngrams(machine.alphabet(), read(args[3]), 3)
+                : Scorer.indexOfCoincidence(machine.alphabet().size());
+            RotorSearch search = new RotorSearch(machine, scorer, k);
+            for (Candidate c : search.search(read(args[1]))) {
+                System.out.printf("%12.6f  %s%n", c.score(), c);
+            }
+        } catch (IOException | NumberFormatException
+                 | EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the contents of the file named NAME. */
+    static String read(String name) throws IOException {
+        return new String(Files.readAllBytes(new File(name).toPath()));
+    }
+
+    /** A search over the rotors of MACHINE, whose plugboard is kept
+     *  fixed, reporting the best K decryptions as judged by SCORER. */
+    RotorSearch(Machine machine, Scorer scorer, int k) {
+        if (k < 1) {
+            throw error("must report at least one candidate");
+        }
+        _machine = machine;
+        _scorer = scorer;
+        _k = k;
+    }
+
+    /** Return the rotor choices and orders that are legal for MACHINE:
+     *  a reflector, then non-moving rotors, then one moving rotor per
+     *  pawl, with no rotor used twice. */
+    static List<String[]> rotorOrders(Machine machine) {
+        ArrayList<String> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor r : machine.getAllRotor()) {
+            if (r.reflecting()) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        int numRotors = machine.numRotors(), pawls = machine.numPawls();
+        List<String[]> result = new ArrayList<>();
+        String[] order = new String[numRotors];
+        for (String refl : reflectors) {
+            order[0] = refl;
+            arrange(fixed, 1, numRotors - pawls, order, moving, result);
+        }
+        return result;
+    }
+
+    /** Fill ORDER[K .. END-1] with distinct names from POOL in every
+     *  possible way, each time continuing with the moving rotors from
+     *  MOVING (if END is not the last slot), and add the completed orders
+     *  to RESULT. */
+    private static void arrange(List<String> pool, int k, int end,
+                                String[] order, List<String> moving,
+                                List<String[]> result) {
+        if (k == end) {
+            if (end == order.length) {
+                result.add(order.clone());
+            } else {
+                arrange(moving, k, order.length, order, null, result);
+            }
+            return;
+        }
+        for (String name : pool) {
+            boolean used = false;
+            for (int i = 0; i < k; i += 1) {
+                used |= order[i].equals(name);
+            }
+            if (!used) {
+                order[k] = name;
+                arrange(pool, k + 1, end, order, moving, result);
+            }
+        }
+    }
+
+    /** Return the characters of TEXT, other than whitespace, as indices
+     *  into ALPHA. */
+    static int[] encode(Alphabet alpha, String text) {
+        int[] result = new int[text.length()];
+        int len = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = Character.toUpperCase(text.charAt(i));
+            if (Character.isWhitespace(ch)) {
+                continue;
+            } else if (!alpha.contains(ch)) {
+                throw error("character '%c' not in alphabet", ch);
+            }
+            result[len] = alpha.toInt(ch);
+            len += 1;
+        }
+        return Arrays.copyOf(result, len);
+    }
+
+    /** Return the best candidates for decrypting CIPHERTEXT, best first.
+     *  Characters of CIPHERTEXT that are whitespace are ignored. */
+    List<Candidate> search(String ciphertext) {
+        _cipher = encode(_machine.alphabet(), ciphertext);
+        return run();
+    }
+
+    /** Return my machine. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Return the ciphertext being searched. */
+    int[] cipher() {
+        return _cipher;
+    }
+
+    /** Try every rotor order and setting on tryState, in parallel, and
+     *  return the best candidates found, best first. */
+    List<Candidate> run() {
+        List<String[]> orders = rotorOrders(_machine);
+        int units = orders.size() * _machine.alphabet().size();
+        PriorityQueue<Candidate> best = units == 0 ? new PriorityQueue<>()
+            : ForkJoinPool.commonPool().invoke(
+                new SearchTask(orders, 0, units));
+        ArrayList<Candidate> result = new ArrayList<>(best);
+        Collections.sort(result, Collections.reverseOrder());
+        return result;
+    }
+
+    /** Return the length of the scratch buffer passed to tryState. */
+    int bufferSize() {
+        return _cipher.length;
+    }
+
+    /** Judge the state of M, whose rotors are ORDER at SETTING (indices
+     *  of the non-reflector rotors' settings), adding it to BEST (using
+     *  offer) if it is good enough.  BUFFER is scratch space of
+     *  bufferSize() entries belonging to the calling thread.  By
+     *  default, decrypts the ciphertext and scores the result. */
+    void tryState(Machine m, String[] order, int[] setting, int[] buffer,
+                  PriorityQueue<Candidate> best) {
+        m.setRotors(setting);
+        double score = score(m, buffer);
+        if (best.size() < _k || best.peek().score() < score) {
+            offer(best, candidate(order, setting, m.plugboard(), score));
+        }
+    }
+
+    /** Return the score of the decryption of the ciphertext by M from
+     *  its current state, using BUFFER to hold the plaintext. */
+    double score(Machine m, int[] buffer) {
+        int[] cipher = _cipher;
+        for (int i = 0; i < cipher.length; i += 1) {
+            buffer[i] = m.convert(cipher[i]);
+        }
+        return _scorer.score(buffer, cipher.length);
+    }
+
+    /** Return a candidate for rotors ORDER at SETTING (as indices) with
+     *  plugboard PLUGBOARD and score SCORE. */
+    Candidate candidate(String[] order, int[] setting,
+                        Permutation plugboard, double score) {
+        Alphabet alpha = _machine.alphabet();
+        char[] chars = new char[setting.length];
+        for (int i = 0; i < setting.length; i += 1) {
+            chars[i] = alpha.toChar(setting[i]);
+        }
+        return new Candidate(order, new String(chars), plugboard, score);
+    }
+
+    /** Add C to BEST, a queue of at most _k candidates with the worst
+     *  at its head, if it is among the best _k. */
+    void offer(PriorityQueue<Candidate> best, Candidate c) {
+        if (best.size() < _k) {
+            best.add(c);
+        } else if (best.peek().compareTo(c) < 0) {
+            best.poll();
+            best.add(c);
+        }
+    }
+
+    /** Searches a range of work units.  Unit U covers rotor order
+     *  U / size with its leftmost non-reflector rotor at setting
+     *  U % size, and all settings of the other rotors. */
+    private class SearchTask extends RecursiveTask<PriorityQueue<Candidate>> {
+        /** A task searching units LO up to HI of ORDERS. */
+        SearchTask(List<String[]> orders, int lo, int hi) {
+            _orders = orders;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected PriorityQueue<Candidate> compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) / 2;
+                SearchTask left = new SearchTask(_orders, _lo, mid);
+                left.fork();
+                PriorityQueue<Candidate> best =
+                    new SearchTask(_orders, mid, _hi).compute();
+                for (Candidate c : left.join()) {
+                    offer(best, c);
+                }
+                return best;
+            }
+            return searchUnit(_lo);
+        }
+
+        /** Return the best candidates in work unit UNIT. */
+        private PriorityQueue<Candidate> searchUnit(int unit) {
+            int size = _machine.alphabet().size();
+            String[] order = _orders.get(unit / size);
+            Machine m = _machine.copy();
+            m.insertRotors(order);
+            int[] setting = new int[order.length - 1];
+            setting[0] = unit % size;
+            int[] buffer = new int[bufferSize()];
+            PriorityQueue<Candidate> best = new PriorityQueue<>();
+            do {
+                tryState(m, order, setting, buffer, best);
+            } while (increment(setting, size));
+            return best;
+        }
+
+        /** Rotor orders being searched. */
+        private final List<String[]> _orders;
+        /** Range of work units covered. */
+        private final int _lo, _hi;
+    }
+
+    /** Advance SETTING, excluding its first entry, to the next
+     *  combination of values in 0 .. SIZE-1, last entry fastest.  Return
+     *  false if it was the last. */
+    private static boolean increment(int[] setting, int size) {
+        for (int i = setting.length - 1; i > 0; i -= 1) {
+            setting[i] += 1;
+            if (setting[i] < size) {
+                return true;
+            }
+            setting[i] = 0;
+        }
+        return false;
+    }
+
+    /** Machine whose rotors are searched. */
+    private final Machine _machine;
+    /** Judge of decryptions. */
+    private final Scorer _scorer;
+    /** Number of candidates to report. */
+    private final int _k;
+    /** Ciphertext of the current search, as alphabet indices. */
+    private int[] _cipher;
+}
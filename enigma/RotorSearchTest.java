@@ -0,0 +1,65 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for RotorSearch.
+ *  @author Terrance Wang
+ */
+public class RotorSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Plaintext used for the attacks. */
+    static final String PLAIN =
+        "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDTHENRANAWAYINTOTHEFOREST"
+        + "WHEREITMETAWISEOLDOWLWHOTOLDITMANYSTORIESABOUTTHEOLDDAYSWHEN"
+        + "THEKINGRULEDTHELANDANDEVERYONEWASHAPPY";
+
+    /** Return a three-slot machine with reflector B and rotors I, II and
+     *  III available. */
+    static Machine smallMachine() {
+        List<Rotor> all = new ArrayList<>();
+        all.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        String[][] moving = {{"I", "Q"}, {"II", "E"}, {"III", "V"}};
+        for (String[] r : moving) {
+            all.add(new MovingRotor(r[0],
+                    new Permutation(NAVALA.get(r[0]), UPPER), r[1]));
+        }
+        return new Machine(UPPER, 3, 2, all);
+    }
+
+    @Test
+    public void checkRotorOrders() {
+        List<String[]> orders = RotorSearch.rotorOrders(smallMachine());
+        assertEquals(6, orders.size());
+        for (String[] order : orders) {
+            assertEquals("B", order[0]);
+            assertNotEquals(order[1], order[2]);
+        }
+    }
+
+    @Test
+    public void checkRecoversSetting() {
+        Machine m = smallMachine();
+        m.insertRotors(new String[] {"B", "II", "I"});
+        m.setRotors("XK");
+        String cipher = m.convert(PLAIN);
+        List<Candidate> best =
+            new RotorSearch(m, Scorer.indexOfCoincidence(26), 3)
+            .search(cipher);
+        assertEquals(3, best.size());
+        assertEquals("* B II I XK", best.get(0).toString());
+        assertTrue(best.get(0).score() >= best.get(1).score());
+    }
+
+}
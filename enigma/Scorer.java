@@ -0,0 +1,174 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A measure of how much a candidate decryption looks like plaintext.
+ *  Larger scores are better.
+ *  @author Terrance Wang
+ */
+abstract class Scorer {
+
+    /** Return the score of the first LEN characters of TEXT, each an
+     *  index into the alphabet.  Must be safe to call from several
+     *  threads at once. */
+    abstract double score(int[] text, int len);
+
+    /** Return the score of the first LEN characters of TEXT, given that
+     *  their score was SCORE before the characters at positions POS[0],
+     *  ..., POS[N - 1] (distinct and increasing) were changed from
+     *  OLD[0], ..., OLD[N - 1] to their present values.  By default,
+     *  scores TEXT afresh; subclasses whose scores are sums over short
+     *  stretches of text may do better.  Must be safe to call from
+     *  several threads at once, but may change TEXT temporarily. */
+    double rescore(int[] text, int len, double score,
+                   int[] pos, int[] old, int n) {
+        return score(text, len);
+    }
+
+    /** Return a Scorer giving the index of coincidence of a text in an
+     *  alphabet of SIZE characters. */
+    static Scorer indexOfCoincidence(int size) {
+        return new IndexOfCoincidence(size);
+    }
+
+    /** Return a Scorer giving the log-likelihood of a text under the
+     *  N-gram frequencies of CORPUS, whose characters (after conversion
+     *  to upper case) outside ALPHABET are ignored. */
+    static Scorer ngrams(Alphabet alphabet, String corpus, int n) {
+        return new NGrams(alphabet, corpus, n);
+    }
+
+    /** Scores texts by their index of coincidence. */
+    private static class IndexOfCoincidence extends Scorer {
+        /** A scorer for an alphabet of SIZE characters. */
+        IndexOfCoincidence(int size) {
+            _size = size;
+        }
+
+        @Override
+        double score(int[] text, int len) {
+            if (len < 2) {
+                return 0.0;
+            }
+            int[] counts = new int[_size];
+            for (int i = 0; i < len; i += 1) {
+                counts[text[i]] += 1;
+            }
+            long sum = 0;
+            for (int c : counts) {
+                sum += (long) c * (c - 1);
+            }
+            return (double) sum / ((double) len * (len - 1));
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+    }
+
+    /** Scores texts by the log-likelihood of their N-grams. */
+    private static class NGrams extends Scorer {
+        /** Largest number of distinct N-grams allowed. */
+        static final int MAX_TABLE = 1 << 24;
+
+        /** A scorer using the N-gram counts of CORPUS over ALPHABET. */
+        NGrams(Alphabet alphabet, String corpus, int n) {
+            int size = alphabet.size();
+            if (n < 1) {
+                throw error("n-grams must have at least one character");
+            }
+            long entries = 1;
+            for (int i = 0; i < n; i += 1) {
+                entries *= size;
+                if (entries > MAX_TABLE) {
+                    throw error("too many %d-grams", n);
+                }
+            }
+            _size = size;
+            _n = n;
+            _logProb = new float[(int) entries];
+            int[] counts = new int[(int) entries];
+            int gram = 0, have = 0;
+            long total = 0;
+            for (int i = 0; i < corpus.length(); i += 1) {
+                char ch = Character.toUpperCase(corpus.charAt(i));
+                if (!alphabet.contains(ch)) {
+                    continue;
+                }
+                gram = (int) ((gram * (long) size + alphabet.toInt(ch))
+                              % entries);
+                have += 1;
+                if (have >= n) {
+                    counts[gram] += 1;
+                    total += 1;
+                }
+            }
+            double denom = Math.log(total + entries);
+            for (int g = 0; g < entries; g += 1) {
+                _logProb[g] = (float) (Math.log(counts[g] + 1) - denom);
+            }
+        }
+
+        @Override
+        double score(int[] text, int len) {
+            int entries = _logProb.length;
+            double result = 0.0;
+            int gram = 0;
+            for (int i = 0; i < len; i += 1) {
+                gram = (int) ((gram * (long) _size + text[i]) % entries);
+                if (i >= _n - 1) {
+                    result += _logProb[gram];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        double rescore(int[] text, int len, double score,
+                       int[] pos, int[] old, int n) {
+            double after = windows(text, len, pos, n);
+            swap(text, pos, old, n);
+            double before = windows(text, len, pos, n);
+            swap(text, pos, old, n);
+            return score - before + after;
+        }
+
+        /** Return the total log probability of the N-grams of the first
+         *  LEN characters of TEXT that contain any of the positions
+         *  POS[0 .. N-1], which are increasing. */
+        private double windows(int[] text, int len, int[] pos, int n) {
+            int entries = _logProb.length;
+            double result = 0.0;
+            int next = _n - 1;
+            for (int k = 0; k < n; k += 1) {
+                int last = Math.min(pos[k] + _n - 1, len - 1);
+                for (int e = Math.max(next, pos[k]); e <= last; e += 1) {
+                    int gram = 0;
+                    for (int i = e - _n + 1; i <= e; i += 1) {
+                        gram = (int) ((gram * (long) _size + text[i])
+                                      % entries);
+                    }
+                    result += _logProb[gram];
+                }
+                next = Math.max(next, last + 1);
+            }
+            return result;
+        }
+
+        /** Exchange TEXT[POS[K]] and OLD[K] for all K < N. */
+        private void swap(int[] text, int[] pos, int[] old, int n) {
+            for (int k = 0; k < n; k += 1) {
+                int t = text[pos[k]];
+                text[pos[k]] = old[k];
+                old[k] = t;
+            }
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+        /** Length of the N-grams. */
+        private final int _n;
+        /** Smoothed log probability of each N-gram, numbered in base
+         *  _size. */
+        private final float[] _logProb;
+    }
+}
@@ -0,0 +1,343 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running Enigma service.  Clients connect to a local socket and
+ *  send any number of requests, each of the form
+ *
+ *      CONVERT NAME
+ *      LINE
+ *      ...
+ *      .
+ *
+ *  where NAME is one of the configurations registered when the server
+ *  started and the LINEs are settings lines and messages in the same
+ *  format as the input to Main (ENCRYPT and DECRYPT are synonyms for
+ *  CONVERT).  As in SMTP, a LINE that starts with '.' is sent with
+ *  another '.' in front of it, which the server removes, so that only
+ *  a line holding a single '.' ends the request.  The reply is the
+ *  output Main would produce for those lines, with the same dot
+ *  stuffing, sent as it is produced, and ends with a status line, the
+ *  only line of the reply that starts with a single '.': "." on
+ *  success, or ".ERROR MESSAGE" if there was an error.  The status
+ *  always starts a line of its own.  Output of the lines before an
+ *  error is kept, as in Main.  A line "QUIT" closes the connection.
+ *
+ *  Each configuration is loaded once, when the server starts, into a
+ *  template Machine, and each request is run on its own copy of that
+ *  template through Main's streaming path, so requests are handled
+ *  concurrently and neither a request nor its reply is held in memory
+ *  as a whole.
+ *  @author Terrance Wang
+ */
+public final class Server {
+
+    /** Serve requests on the socket described by the last of ARGS: a
+     *  port number for a TCP socket on the loopback address, or
+     *  otherwise the path of a Unix-domain socket to create.  The
+     *  options --config NAME=FILE before it, at least one of which is
+     *  required, register the configuration in FILE under NAME. */
+    public static void main(String... args) {
+        try {
+            LinkedHashMap<String, String> configs = new LinkedHashMap<>();
+            int k;
+            for (k = 0; k + 1 < args.length && args[k].equals("--config");
+                 k += 2) {
+                int eq = args[k + 1].indexOf('=');
+                if (eq <= 0 || eq == args[k + 1].length() - 1) {
+                    throw error("--config needs NAME=FILE");
+                }
+                String name = args[k + 1].substring(0, eq);
+                if (configs.put(name, args[k + 1].substring(eq + 1))
+                    != null) {
+                    throw error("configuration %s registered twice", name);
+                }
+            }
+            if (k != args.length - 1 || configs.isEmpty()) {
+                throw error("usage: java enigma.Server --config NAME=FILE "
+                            + "... PORT-OR-PATH");
+            }
+            new Server(args[k], configs).serve();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A server for the configurations in the files CONFIGS, by name,
+     *  listening on ADDRESS, a port number on the loopback address (0
+     *  for any free port) or the path of a Unix-domain socket.  A
+     *  socket file left at ADDRESS by a server that is no longer
+     *  running is replaced. */
+    Server(String address, Map<String, String> configs) {
+        for (Map.Entry<String, String> e : configs.entrySet()) {
+            _templates.put(e.getKey(), ConfigCache.load(e.getValue()));
+        }
+        try {
+            if (address.matches("\\d+")) {
+                SocketAddress addr =
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                          Integer.parseInt(address));
+                _listener = ServerSocketChannel.open();
+                _listener.bind(addr);
+                _socketPath = null;
+            } else {
+                UnixDomainSocketAddress addr =
+                    UnixDomainSocketAddress.of(address);
+                if (Files.exists(addr.getPath()) && !live(addr)) {
+                    Files.delete(addr.getPath());
+                }
+                _listener =
+                    ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                _listener.bind(addr);
+                _socketPath = addr.getPath();
+            }
+        } catch (IOException | NumberFormatException excp) {
+            throw error("could not listen on %s", address);
+        }
+        _workers = newWorkers();
+    }
+
+    /** Return true iff a server is accepting connections at ADDR. */
+    private static boolean live(UnixDomainSocketAddress addr) {
+        try {
+            SocketChannel.open(addr).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return an executor that runs each task in a new virtual thread,
+     *  if the running JVM has them, and otherwise in a pooled platform
+     *  thread. */
+    private static ExecutorService newWorkers() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Accept and handle connections until the listening socket is
+     *  closed. */
+    void serve() {
+        try {
+            while (true) {
+                SocketChannel client = _listener.accept();
+                _workers.execute(() -> handle(client));
+            }
+        } catch (IOException excp) {
+            _workers.shutdown();
+        }
+    }
+
+    /** Stop accepting connections, removing my socket file, if any. */
+    void close() {
+        try {
+            _listener.close();
+            if (_socketPath != null) {
+                Files.deleteIfExists(_socketPath);
+            }
+        } catch (IOException excp) {
+            throw error("could not close server socket");
+        }
+    }
+
+    /** Return the address on which I am listening. */
+    SocketAddress address() {
+        try {
+            return _listener.getLocalAddress();
+        } catch (IOException excp) {
+            throw error("server socket closed");
+        }
+    }
+
+    /** Handle all requests from CLIENT, then close it. */
+    private void handle(SocketChannel client) {
+        try (client) {
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(client),
+                                      StandardCharsets.UTF_8));
+            OutputStream out = Channels.newOutputStream(client);
+            String header;
+            while ((header = in.readLine()) != null) {
+                if (header.equals("QUIT")) {
+                    break;
+                }
+                Request request = new Request(in);
+                respond(header, request, out);
+                request.skipRest();
+                out.flush();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Send to OUT the reply to the request with header line HEADER and
+     *  input lines read from REQUEST. */
+    private void respond(String header, Request request, OutputStream out)
+        throws IOException {
+        DotStuffing dots = new DotStuffing(out);
+        PrintStream output =
+            new PrintStream(dots, false, StandardCharsets.UTF_8.name());
+        String status = ".\r\n";
+        try {
+            String[] words = header.trim().split("\\s+", 2);
+            if (words.length != 2 || !(words[0].equals("CONVERT")
+                                       || words[0].equals("ENCRYPT")
+                                       || words[0].equals("DECRYPT"))) {
+                throw error("malformed request: %s", header);
+            }
+            Machine template = _templates.get(words[1]);
+            if (template == null) {
+                throw error("unknown configuration %s", words[1]);
+            }
+            new Main(template.copy(), request, output).process();
+        } catch (EnigmaException excp) {
+            status = ".ERROR " + excp.getMessage() + "\r\n";
+        } catch (RuntimeException excp) {
+            status = ".ERROR malformed input\r\n";
+        }
+        output.flush();
+        if (output.checkError()) {
+            throw new IOException("could not write reply");
+        }
+        if (!dots._lineStart) {
+            status = "\r\n" + status;
+        }
+        out.write(status.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** The lines of one request, up to but not including the line "."
+     *  that ends it, with the '.' added in front of lines that start
+     *  with '.' removed, each ending in a newline. */
+    private static class Request extends Reader {
+
+        /** The lines of the request read from IN. */
+        Request(BufferedReader in) {
+            _in = in;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            if (_pos == _line.length()) {
+                if (_ended) {
+                    return -1;
+                }
+                String line = _in.readLine();
+                if (line == null || line.equals(".")) {
+                    _ended = true;
+                    return -1;
+                }
+                _line = (line.startsWith(".") ? line.substring(1) : line)
+                    + "\n";
+                _pos = 0;
+            }
+            int n = Math.min(len, _line.length() - _pos);
+            _line.getChars(_pos, _pos + n, buf, off);
+            _pos += n;
+            return n;
+        }
+
+        /** Read and discard the rest of the request. */
+        void skipRest() throws IOException {
+            char[] buf = new char[1 << 12];
+            while (read(buf, 0, buf.length) != -1) {
+                continue;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** Source of the lines. */
+        private final BufferedReader _in;
+        /** The current line, with its newline. */
+        private String _line = "";
+        /** Number of characters of _line already read. */
+        private int _pos;
+        /** True iff the line ending the request has been read. */
+        private boolean _ended;
+    }
+
+    /** An output stream that adds a '.' in front of each line that
+     *  starts with '.'. */
+    private static class DotStuffing extends FilterOutputStream {
+
+        /** A stream adding dots to lines written to OUT. */
+        DotStuffing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_lineStart && b == '.') {
+                out.write('.');
+            }
+            out.write(b);
+            _lineStart = b == '\n';
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            for (int i = off; i < off + len; i += 1) {
+                if (_lineStart && b[i] == '.') {
+                    out.write(b, start, i - start);
+                    out.write('.');
+                    start = i;
+                }
+                _lineStart = b[i] == '\n';
+            }
+            out.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /** True iff the next byte written starts a line. */
+        private boolean _lineStart = true;
+    }
+
+    /** Socket on which I accept connections. */
+    private final ServerSocketChannel _listener;
+
+    /** The file of my Unix-domain socket, or null. */
+    private final Path _socketPath;
+
+    /** Runs one task per connection. */
+    private final ExecutorService _workers;
+
+    /** Machines of the registered configurations, by name. */
+    private final HashMap<String, Machine> _templates = new HashMap<>();
+}
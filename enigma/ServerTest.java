@@ -0,0 +1,199 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for Server.
+ *  @author Terrance Wang
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** A configuration on A-Z. */
+    private static final String LETTERS =
+        "A-Z 4 2\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** A configuration whose alphabet contains '.'. */
+    private static final String DOTS =
+        "ABCDE. 3 1\n"
+        + "M MA (ABC) (DE.)\n"
+        + "F N (AD)\n"
+        + "R R (AB) (CD) (E.)\n";
+
+    /** Return the path of a new temporary file holding CONTENTS. */
+    private String temp(String contents) throws IOException {
+        File f = File.createTempFile("enigma", ".conf");
+        f.deleteOnExit();
+        Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return f.getPath();
+    }
+
+    /** Return the output of Main for the configuration CONFIG on
+     *  INPUT. */
+    private String expected(String config, String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Main(Main.readConfig(new Scanner(config)), new Scanner(input),
+                 new PrintStream(bytes, true)).process();
+        return bytes.toString();
+    }
+
+    /** Return a started server on any free port for LETTERS, as
+     *  "letters", and DOTS, as "dots". */
+    private Server start() throws IOException {
+        Map<String, String> configs = new HashMap<>();
+        configs.put("letters", temp(LETTERS));
+        configs.put("dots", temp(DOTS));
+        Server server = new Server("0", configs);
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /** Send the request with header HEADER and input lines INPUT,
+     *  adding dots to lines that start with '.', to OUT and return
+     *  the reply read from IN, without its added dots, and followed by
+     *  its status line unless that is ".". */
+    private String request(OutputStream out, BufferedReader in,
+                           String header, String input)
+        throws IOException {
+        StringBuilder req = new StringBuilder(header + "\n");
+        for (String line : input.split("\n")) {
+            req.append(line.startsWith(".") ? "." : "").append(line)
+                .append("\n");
+        }
+        req.append(".\n");
+        out.write(req.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        StringBuilder reply = new StringBuilder();
+        String line;
+        while ((line = in.readLine()).startsWith("..")
+               || !line.startsWith(".")) {
+            reply.append(line.startsWith(".") ? line.substring(1) : line)
+                .append("\r\n");
+        }
+        if (!line.equals(".")) {
+            reply.append(line).append("\r\n");
+        }
+        return reply.toString();
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Server server = start();
+        try (SocketChannel client = SocketChannel.open(server.address())) {
+            OutputStream out = Channels.newOutputStream(client);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(client),
+                                      StandardCharsets.UTF_8));
+            String letters = "* B Beta I II AXL (AQ)\nHELLO WORLD\n\nagain\n";
+            String dots = "* R F M A.\n.\n..A.B\nDEAD BEEF\n.\n";
+            assertEquals(expected(LETTERS, letters),
+                         request(out, in, "CONVERT letters", letters));
+            assertEquals(expected(DOTS, dots),
+                         request(out, in, "DECRYPT dots", dots));
+            out.write("QUIT\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertNull(in.readLine());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void checkErrors() throws IOException {
+        Server server = start();
+        try (SocketChannel client = SocketChannel.open(server.address())) {
+            OutputStream out = Channels.newOutputStream(client);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(client),
+                                      StandardCharsets.UTF_8));
+            assertEquals(".ERROR unknown configuration /etc/passwd\r\n",
+                         request(out, in, "CONVERT /etc/passwd", "ABC\n"));
+            String good = "* B Beta I II AXL\nHELLO WORLD\n";
+            String reply = request(out, in, "CONVERT letters",
+                                   good + "* B Beta I II XX\nMORE\n");
+            assertEquals(expected(LETTERS, good) + ".ERROR ",
+                         reply.substring(0, reply.indexOf(".ERROR ") + 7));
+            reply = request(out, in, "CONVERT letters",
+                            good + "GOODBYE WORLD1\nMORE\n");
+            assertEquals(expected(LETTERS, good) + ".ERROR ",
+                         reply.substring(0, reply.indexOf(".ERROR ") + 7));
+            assertEquals(expected(LETTERS, good),
+                         request(out, in, "ENCRYPT letters", good));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void checkMidLineError() throws IOException {
+        Server server = start();
+        try (SocketChannel client = SocketChannel.open(server.address())) {
+            OutputStream out = Channels.newOutputStream(client);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(client),
+                                      StandardCharsets.UTF_8));
+            String settings = "* B Beta I II AXL\n";
+            String cipher = expected(LETTERS, settings + "ERROR\n");
+            assertEquals("ERROR\r\n",
+                         request(out, in, "DECRYPT letters",
+                                 settings + cipher));
+            String reply = request(out, in, "CONVERT letters",
+                                   settings + "A".repeat(100000) + "1\n");
+            int k = reply.indexOf("\r\n");
+            assertTrue(k > 0);
+            assertTrue(reply.substring(0, k).matches("[A-Z ]+"));
+            assertTrue(reply.startsWith(".ERROR ", k + 2));
+            assertEquals(reply.length() - 2, reply.indexOf("\r\n", k + 2));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void checkStaleSocket() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path path = dir.resolve("s.sock");
+        ServerSocketChannel old =
+            ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        old.bind(UnixDomainSocketAddress.of(path));
+        old.close();
+        assertTrue(Files.exists(path));
+        Map<String, String> configs = new HashMap<>();
+        configs.put("letters", temp(LETTERS));
+        Server server = new Server(path.toString(), configs);
+        server.close();
+        assertFalse(Files.exists(path));
+        Files.delete(dir);
+    }
+}
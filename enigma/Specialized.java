@@ -0,0 +1,303 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/** A converter generated at run time for one choice of rotors.  Its
+ *  code has the alphabet size, the number of slots and pawls and which
+ *  pawled rotors can advance built in, with the rotor chain and the
+ *  stepping unrolled, so that it makes no virtual calls on Rotor, has no
+ *  loops over slots and no plugboard checks.  The wiring of each rotor,
+ *  as a table indexed by setting and contact, and the notch masks are
+ *  constants of the generated class.
+ *
+ *  The source for each shape (alphabet size, slots, pawls and
+ *  advancing rotors) is compiled once with the system Java compiler
+ *  (javax.tools); each choice of rotors of that shape then defines a
+ *  hidden class from the same bytes, with its own tables as class data.
+ *  generate returns null, so that Machine falls back to interpreting the
+ *  rotors, when there is no system compiler, as in a bare runtime, or
+ *  the machine cannot be specialized.
+ *  @author Terrance Wang
+ */
+abstract class Specialized {
+
+    /** Convert MSG[START .. END-1], alphabet indices in range, in place,
+     *  as Machine.convert(int) would convert each in turn, with rotors
+     *  whose settings, one per slot starting with the reflector, are
+     *  SETTINGS, which is updated, and plugboard PLUG, whose inverse is
+     *  UNPLUG. */
+    abstract void convert(int[] settings, int[] plug, int[] unplug,
+                          int[] msg, int start, int end);
+
+    /** Return a converter for the same rotors as mine, with its own
+     *  working storage. */
+    abstract Specialized copy();
+
+    /** Return a converter specialized to the rotors now in MACHINE, or
+     *  null if none can be generated. */
+    static Specialized generate(Machine machine) {
+        Rotor[] rotors = machine.slots().toArray(new Rotor[0]);
+        int size = machine.alphabet().size(), n = rotors.length;
+        int first = n - machine.numPawls();
+        if (size > Rotor.SQUARE_TABLE_LIMIT || n != machine.numRotors()
+            || first < 1 || !rotors[0].reflecting()) {
+            return null;
+        }
+        boolean[] advances = new boolean[n];
+        for (int k = 1; k < n; k += 1) {
+            if (rotors[k].reflecting()) {
+                return null;
+            }
+            advances[k] = k >= first && rotors[k].rotates();
+        }
+        byte[] bytes = compile(source(size, n, first, advances));
+        if (bytes == null) {
+            return null;
+        }
+        List<Object> data = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            data.add(table(rotors[k], size, false));
+            if (k > 0) {
+                data.add(table(rotors[k], size, true));
+            }
+        }
+        for (int k = first + 1; k < n; k += 1) {
+            data.add(rotors[k].notchMask());
+        }
+        try {
+            return (Specialized) MethodHandles.lookup()
+                .defineHiddenClassWithClassData(bytes, data.toArray(), true)
+                .lookupClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | RuntimeException
+                 | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** Return the wiring of R (its inverse if INVERSE) on an alphabet of
+     *  SIZE characters as a table whose entry S * SIZE + P is the
+     *  conversion of P at setting S. */
+    private static int[] table(Rotor r, int size, boolean inverse) {
+        Rotor copy = r.copy();
+        int[] result = new int[size * size];
+        for (int s = 0; s < size; s += 1) {
+            copy.position(s);
+            for (int p = 0; p < size; p += 1) {
+                result[s * size + p] = inverse ? copy.convertBackward(p)
+                    : copy.convertForward(p);
+            }
+        }
+        return result;
+    }
+
+    /** Name of the generated class, which is in this package. */
+    private static final String NAME = "SpecializedConverter";
+
+    /** Return the source of a converter for an alphabet of SIZE
+     *  characters and N slots, of which those from FIRST on have pawls,
+     *  and ADVANCES[K] is true iff the rotor in slot K advances.  Its
+     *  class data are the forward and then inverse tables of each slot
+     *  (forward only for the reflector in slot 0) followed by the notch
+     *  masks of the slots after FIRST. */
+    private static String source(int size, int n, int first,
+                                 boolean[] advances) {
+        StringBuilder s = new StringBuilder();
+        s.append("package enigma;\n")
+            .append("import java.lang.invoke.MethodHandles;\n")
+            .append("final class ").append(NAME)
+            .append(" extends Specialized {\n")
+            .append("  private static final Object[] D = data();\n")
+            .append("  private static Object[] data() {\n")
+            .append("    try {\n")
+            .append("      return MethodHandles.classData(")
+            .append("MethodHandles.lookup(), \"_\", Object[].class);\n")
+            .append("    } catch (IllegalAccessException e) {\n")
+            .append("      throw new IllegalStateException(e);\n")
+            .append("    }\n")
+            .append("  }\n");
+        int d = 0;
+        for (int k = 0; k < n; k += 1) {
+            s.append(String.format("  private static final int[] F%d ="
+                                   + " (int[]) D[%d];%n", k, d));
+            d += 1;
+            if (k > 0) {
+                s.append(String.format("  private static final int[] B%d ="
+                                       + " (int[]) D[%d];%n", k, d));
+                d += 1;
+            }
+        }
+        for (int k = first + 1; k < n; k += 1) {
+            s.append(String.format("  private static final boolean[] M%d ="
+                                   + " (boolean[]) D[%d];%n", k, d));
+            d += 1;
+        }
+        s.append(String.format("  private final int[] _inner ="
+                               + " new int[%d];%n", size))
+            .append("  @Override\n  Specialized copy() {\n")
+            .append("    return new ").append(NAME).append("();\n  }\n")
+            .append("  @Override\n")
+            .append("  void convert(int[] settings, int[] plug,")
+            .append(" int[] unplug, int[] msg, int start, int end) {\n");
+        for (int k = 0; k < n; k += 1) {
+            s.append(String.format("    int s%d = settings[%d];%n", k, k));
+        }
+        s.append("    int[] inner = _inner;\n")
+            .append(String.format("    for (int x = 0; x < %d; x += 1) {%n",
+                                  size))
+            .append("      int c = x;\n");
+        for (int k = first - 1; k >= 0; k -= 1) {
+            s.append(lookup("F", k, size));
+        }
+        for (int k = 1; k < first; k += 1) {
+            s.append(lookup("B", k, size));
+        }
+        s.append("      inner[x] = c;\n    }\n")
+            .append("    for (int i = start; i < end; i += 1) {\n");
+        for (int k = first + 1; k < n; k += 1) {
+            s.append(String.format("      boolean n%d = M%d[s%d];%n",
+                                   k, k, k));
+        }
+        for (int k = first; k < n; k += 1) {
+            if (!advances[k]) {
+                continue;
+            }
+            String step = String.format("s%d = s%d == %d ? 0 : s%d + 1;",
+                                        k, k, size - 1, k);
+            if (k == n - 1) {
+                s.append("      ").append(step).append('\n');
+            } else if (k == first) {
+                s.append(String.format("      if (n%d) {%n        %s%n"
+                                       + "      }%n", k + 1, step));
+            } else {
+                s.append(String.format("      if (n%d || n%d) {%n"
+                                       + "        %s%n      }%n",
+                                       k + 1, k, step));
+            }
+        }
+        s.append("      int c = plug[msg[i]];\n");
+        for (int k = n - 1; k >= first; k -= 1) {
+            s.append(lookup("F", k, size));
+        }
+        s.append("      c = inner[c];\n");
+        for (int k = first; k < n; k += 1) {
+            s.append(lookup("B", k, size));
+        }
+        s.append("      msg[i] = unplug[c];\n    }\n");
+        for (int k = first; k < n; k += 1) {
+            s.append(String.format("    settings[%d] = s%d;%n", k, k));
+        }
+        s.append("  }\n}\n");
+        return s.toString();
+    }
+
+    /** Return a statement converting c through table TABLE of slot K on
+     *  an alphabet of SIZE characters. */
+    private static String lookup(String table, int k, int size) {
+        return String.format("      c = %s%d[s%d * %d + c];%n",
+                             table, k, k, size);
+    }
+
+    /** Class files compiled from generated sources, keyed by source.  An
+     *  empty array marks a source that could not be compiled. */
+    private static final ConcurrentHashMap<String, byte[]> COMPILED =
+        new ConcurrentHashMap<>();
+
+    /** Return the class file compiled from SOURCE, the source of class
+     *  NAME, or null if it cannot be compiled. */
+    private static byte[] compile(String source) {
+        byte[] result = COMPILED.get(source);
+        if (result == null) {
+            result = runCompiler(source);
+            COMPILED.putIfAbsent(source, result == null ? new byte[0]
+                                 : result);
+        }
+        return result == null || result.length == 0 ? null : result;
+    }
+
+    /** Return the class file compiled from SOURCE with the system Java
+     *  compiler, or null if there is none or compilation fails. */
+    private static byte[] runCompiler(String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JavaFileObject input =
+            new SimpleJavaFileObject(URI.create("string:///enigma/" + NAME
+                                                + ".java"),
+                                     JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreErrors) {
+                    return source;
+                }
+            };
+        try (StandardJavaFileManager std =
+             javac.getStandardFileManager(null, null, null)) {
+            JavaFileManager files =
+                new ForwardingJavaFileManager<JavaFileManager>(std) {
+                    @Override
+                    public JavaFileObject getJavaFileForOutput(
+                        Location location, String name,
+                        JavaFileObject.Kind kind, FileObject sibling) {
+                        return new SimpleJavaFileObject(
+                            URI.create("mem:///" + name + kind.extension),
+                            kind) {
+                            @Override
+                            public OutputStream openOutputStream() {
+                                return out;
+                            }
+                        };
+                    }
+                };
+            List<String> options =
+                Arrays.asList("-classpath", classPath(), "-proc:none",
+                              "-g:none", "-nowarn");
+            Boolean ok =
+                javac.getTask(new StringWriter(), files,
+                              new DiagnosticCollector<JavaFileObject>(),
+                              options, null,
+                              Collections.singletonList(input)).call();
+            return ok ? out.toByteArray() : null;
+        } catch (IOException | RuntimeException excp) {
+            return null;
+        }
+    }
+
+    /** Return a class path on which the compiler can find this class. */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path", "");
+        CodeSource code = Specialized.class.getProtectionDomain()
+            .getCodeSource();
+        if (code != null && code.getLocation() != null) {
+            try {
+                path = new File(code.getLocation().toURI()).getPath()
+                    + File.pathSeparator + path;
+            } catch (URISyntaxException | IllegalArgumentException excp) {
+                /* Use java.class.path alone. */
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,294 @@
+package enigma;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Opt-in counters and stage timers for the simulator.  Nothing is
+ *  recorded until enable() is called, and until then each recording
+ *  site costs one test of a static flag.  Counters are LongAdders and
+ *  histograms have one bucket per power of two nanoseconds, so
+ *  recording from many threads at once is cheap and needs no locks.
+ *  @author Terrance Wang
+ */
+final class Stats implements StatsMXBean {
+
+    /** The timed stages. */
+    enum Stage {
+        /** Reading configurations. */
+        CONFIG,
+        /** Applying settings lines. */
+        SETUP,
+        /** Converting messages. */
+        CONVERT,
+        /** Writing output. */
+        OUTPUT
+    }
+
+    /** JMX name under which enable() registers the statistics. */
+    static final String OBJECT_NAME = "enigma:type=Stats";
+
+    /** The only instance, which is registered with JMX. */
+    static final Stats STATS = new Stats();
+
+    /** Number of histogram buckets. */
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    /** True iff statistics are being recorded. */
+    private static boolean _enabled;
+
+    /** Not instantiable from outside. */
+    private Stats() {
+        for (Stage s : Stage.values()) {
+            _histograms[s.ordinal()] = new AtomicLongArray(BUCKETS);
+            _totals[s.ordinal()] = new LongAdder();
+            _maxima[s.ordinal()] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    /** Start recording statistics, and register them with the platform
+     *  MBean server.  Should be called before the computation to be
+     *  measured starts any threads.  Returns false if registration
+     *  failed, in which case statistics are recorded all the same. */
+    static boolean enable() {
+        _enabled = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(STATS, name);
+            }
+            return true;
+        } catch (JMException | SecurityException excp) {
+            return false;
+        }
+    }
+
+    /** Stop recording statistics. */
+    static void disable() {
+        _enabled = false;
+    }
+
+    /** Return true iff statistics are being recorded. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Record that N characters were converted. */
+    static void characters(long n) {
+        STATS._characters.add(n);
+    }
+
+    /** Record ADVANCES rotor advances, of which DOUBLE were double
+     *  steps, in one keystroke. */
+    static void steps(int advances, int doubleSteps) {
+        STATS._advances.add(advances);
+        if (doubleSteps != 0) {
+            STATS._doubleSteps.add(doubleSteps);
+        }
+    }
+
+    /** Record that a settings line was processed. */
+    static void settingsLine() {
+        STATS._settingsLines.increment();
+    }
+
+    /** Record that N bytes of output were written. */
+    static void bytes(long n) {
+        STATS._bytes.add(n);
+    }
+
+    /** Record that the rotors of a configuration use N bytes of
+     *  conversion tables. */
+    static void tableBytes(long n) {
+        STATS._tableBytes.add(n);
+    }
+
+    /** Record that STAGE took from START to END, in nanoseconds as
+     *  given by System.nanoTime(). */
+    static void time(Stage stage, long start, long end) {
+        long nanos = Math.max(0, end - start);
+        int k = stage.ordinal();
+        STATS._histograms[k].incrementAndGet(
+            Long.SIZE - Long.numberOfLeadingZeros(nanos));
+        STATS._totals[k].add(nanos);
+        STATS._maxima[k].accumulate(nanos);
+    }
+
+    /** Return a stream writing to OUT that records the bytes written
+     *  through it. */
+    static OutputStream counting(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytes(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                throws IOException {
+                out.write(b, off, len);
+                bytes(len);
+            }
+        };
+    }
+
+    @Override
+    public long getCharactersConverted() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getRotorAdvances() {
+        return _advances.sum();
+    }
+
+    @Override
+    public long getDoubleSteps() {
+        return _doubleSteps.sum();
+    }
+
+    @Override
+    public long getSettingsLines() {
+        return _settingsLines.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return _bytes.sum();
+    }
+
+    @Override
+    public long getTableBytes() {
+        return _tableBytes.sum();
+    }
+
+    @Override
+    public String[] getStages() {
+        String[] result = new String[Stage.values().length];
+        for (Stage s : Stage.values()) {
+            result[s.ordinal()] = s.name().toLowerCase();
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getHistogram(String stage) {
+        AtomicLongArray buckets = _histograms[stage(stage).ordinal()];
+        long[] result = new long[BUCKETS];
+        for (int k = 0; k < BUCKETS; k += 1) {
+            result[k] = buckets.get(k);
+        }
+        return result;
+    }
+
+    @Override
+    public long getTotalNanos(String stage) {
+        return _totals[stage(stage).ordinal()].sum();
+    }
+
+    /** Return the stage named NAME, ignoring case. */
+    private static Stage stage(String name) {
+        for (Stage s : Stage.values()) {
+            if (s.name().equalsIgnoreCase(name)) {
+                return s;
+            }
+        }
+        throw error("no stage named %s", name);
+    }
+
+    @Override
+    public String getSummary() {
+        Formatter out = new Formatter();
+        out.format("characters converted %14d%n", getCharactersConverted());
+        out.format("rotor advances       %14d%n", getRotorAdvances());
+        out.format("double steps         %14d%n", getDoubleSteps());
+        out.format("settings lines       %14d%n", getSettingsLines());
+        out.format("bytes written        %14d%n", getBytesWritten());
+        out.format("rotor table bytes    %14d%n", getTableBytes());
+        out.format("%-8s %10s %12s %10s %10s %10s %10s%n", "stage",
+                   "count", "total ms", "mean us", "p50 us", "p99 us",
+                   "max us");
+        for (Stage s : Stage.values()) {
+            long[] hist = getHistogram(s.name());
+            long count = 0;
+            for (long c : hist) {
+                count += c;
+            }
+            long total = _totals[s.ordinal()].sum(),
+                max = _maxima[s.ordinal()].get();
+            out.format("%-8s %10d %12.3f %10.3f %10.3f %10.3f %10.3f%n",
+                       s.name().toLowerCase(), count, total / 1e6,
+                       count == 0 ? 0.0 : total / 1e3 / count,
+                       percentile(hist, count, 0.5, max) / 1e3,
+                       percentile(hist, count, 0.99, max) / 1e3,
+                       max / 1e3);
+        }
+        return out.toString();
+    }
+
+    /** Return an upper bound on the FRACTION percentile, in
+     *  nanoseconds, of the COUNT times in histogram HIST, the largest of
+     *  which is MAX. */
+    private static double percentile(long[] hist, long count,
+                                     double fraction, long max) {
+        long rank = (long) Math.ceil(fraction * count), seen = 0;
+        for (int k = 0; k < hist.length; k += 1) {
+            seen += hist[k];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, k == 0 ? 0.0 : Math.pow(2, k) - 1);
+            }
+        }
+        return 0.0;
+    }
+
+    @Override
+    public void reset() {
+        _characters.reset();
+        _advances.reset();
+        _doubleSteps.reset();
+        _settingsLines.reset();
+        _bytes.reset();
+        _tableBytes.reset();
+        for (Stage s : Stage.values()) {
+            int k = s.ordinal();
+            for (int b = 0; b < BUCKETS; b += 1) {
+                _histograms[k].set(b, 0);
+            }
+            _totals[k].reset();
+            _maxima[k].reset();
+        }
+    }
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+    /** Rotor advances. */
+    private final LongAdder _advances = new LongAdder();
+    /** Double steps. */
+    private final LongAdder _doubleSteps = new LongAdder();
+    /** Settings lines processed. */
+    private final LongAdder _settingsLines = new LongAdder();
+    /** Bytes written. */
+    private final LongAdder _bytes = new LongAdder();
+    /** Bytes of rotor conversion tables of the configurations loaded. */
+    private final LongAdder _tableBytes = new LongAdder();
+    /** Histogram of the times of each stage. */
+    private final AtomicLongArray[] _histograms =
+        new AtomicLongArray[Stage.values().length];
+    /** Total nanoseconds of each stage. */
+    private final LongAdder[] _totals = new LongAdder[Stage.values().length];
+    /** Longest time of each stage. */
+    private final LongAccumulator[] _maxima =
+        new LongAccumulator[Stage.values().length];
+}
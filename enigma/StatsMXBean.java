@@ -0,0 +1,46 @@
+package enigma;
+
+/** The management interface through which Stats exposes the
+ *  simulator's counters and stage timings over JMX, under the name
+ *  Stats.OBJECT_NAME.
+ *  @author Terrance Wang
+ */
+public interface StatsMXBean {
+
+    /** Return the number of characters converted. */
+    long getCharactersConverted();
+
+    /** Return the number of single-rotor advances. */
+    long getRotorAdvances();
+
+    /** Return the number of times a rotor advanced because it was
+     *  itself at a notch (the double step). */
+    long getDoubleSteps();
+
+    /** Return the number of settings lines processed. */
+    long getSettingsLines();
+
+    /** Return the number of bytes of output written. */
+    long getBytesWritten();
+
+    /** Return the number of bytes used by the rotor conversion tables
+     *  of the configurations loaded (see Machine.tableBytes). */
+    long getTableBytes();
+
+    /** Return the names of the timed stages. */
+    String[] getStages();
+
+    /** Return the histogram of the times spent in STAGE: entry K is the
+     *  number of times that took from 2**(K-1) up to 2**K - 1
+     *  nanoseconds (0 for entry 0). */
+    long[] getHistogram(String stage);
+
+    /** Return the total nanoseconds spent in STAGE. */
+    long getTotalNanos(String stage);
+
+    /** Return a printable summary of all statistics. */
+    String getSummary();
+
+    /** Set all counters and histograms to 0. */
+    void reset();
+}
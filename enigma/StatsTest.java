@@ -0,0 +1,58 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static enigma.RotorSearchTest.*;
+
+/** The suite of all JUnit tests for Stats.
+ *  @author Terrance Wang
+ */
+public class StatsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void checkCounters() throws IOException {
+        Stats.enable();
+        Stats.STATS.reset();
+        try {
+            Machine m = smallMachine();
+            m.insertRotors(new String[] {"B", "II", "I"});
+            m.setRotors("AA");
+            Stats.tableBytes(m.tableBytes());
+            for (int i = 0; i < 26 * 26; i += 1) {
+                m.convert(0);
+            }
+            OutputStream out = Stats.counting(new ByteArrayOutputStream());
+            out.write(new byte[] {1, 2, 3});
+            Stats.time(Stats.Stage.OUTPUT, 0, 1000);
+            Stats.time(Stats.Stage.OUTPUT, 0, 3);
+        } finally {
+            Stats.disable();
+        }
+        StatsMXBean stats = Stats.STATS;
+        assertEquals(26 * 26, stats.getCharactersConverted());
+        assertEquals(26 * 26 + 26, stats.getRotorAdvances());
+        assertEquals(3, stats.getBytesWritten());
+        assertEquals(4 * 2 * Integer.BYTES * 26 * 26,
+                     stats.getTableBytes());
+        assertEquals(1003, stats.getTotalNanos("output"));
+        long[] hist = stats.getHistogram("OUTPUT");
+        assertEquals(1, hist[2]);
+        assertEquals(1, hist[10]);
+        assertTrue(stats.getSummary().contains("output"));
+        assertTrue(stats.getSummary().contains("rotor table bytes"));
+        stats.reset();
+        assertEquals(0, stats.getCharactersConverted());
+    }
+
+}
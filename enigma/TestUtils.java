@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -126,4 +128,23 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** Return a new 5-slot naval machine with 3 pawls whose rotors are
+     *  the moving rotors I, III and IV, the fixed rotor Beta and the
+     *  reflector B, inserted as B Beta III IV I, with no plugboard.
+     *  Each call builds fresh rotors, so machines do not share state. */
+    static Machine navalMachine() {
+        List<Rotor> all = new ArrayList<>();
+        String[][] moving = {{"I", "Q"}, {"III", "V"}, {"IV", "J"}};
+        for (String[] r : moving) {
+            all.add(new MovingRotor(r[0],
+                    new Permutation(NAVALA.get(r[0]), UPPER), r[1]));
+        }
+        all.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        all.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        Machine m = new Machine(UPPER, 5, 3, all);
+        m.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        return m;
+    }
+
 }
@@ -10,7 +10,14 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
+                          MachineTest.class, AlphabetTest.class,
+                          RotorSearchTest.class, CribSearchTest.class,
+                          PlugboardSearchTest.class, ConfigCacheTest.class,
+                          MachineBatchTest.class, StatsTest.class,
+                          PipelineTest.class, DifferentialTest.class,
+                          MainTest.class, KeySheetTest.class,
+                          ServerTest.class);
     }
 
 }
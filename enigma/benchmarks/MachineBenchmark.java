@@ -0,0 +1,232 @@
+package enigma;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Enigma throughput.  Every benchmark counts one
+ *  operation per character, so scores are in characters per second.
+ *  Run with "-prof gc" (as "make bench" does) to see allocation rates.
+ *  @author Terrance Wang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MachineBenchmark {
+
+    /** Length of the message used by most benchmarks. */
+    static final int MESSAGE_LENGTH = 1 << 16;
+
+    /** Length of the message used by the long-message benchmarks. */
+    static final int LONG_MESSAGE_LENGTH = 1 << 22;
+
+    /** Number of characters per line in input to Main. */
+    static final int LINE_LENGTH = 60;
+
+    /** Machine configuration: "classic" is the naval machine on A-Z,
+     *  "extended" uses a large ExtendedCharacterRange alphabet, and
+     *  "manyRotors" has twelve slots on A-Z. */
+    @Param({"classic", "extended", "manyRotors"})
+    public String config;
+
+    /** Build the machine named by config and random messages for it. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rand = new Random(61);
+        switch (config) {
+        case "classic":
+            _alphabet = new CharacterRange('A', 'Z');
+            build(5, 3, rand);
+            break;
+        case "extended":
+            StringBuilder vals = new StringBuilder();
+            for (int i = 0; i < 1000; i += 1) {
+                vals.append((char) ('\u4e00' + i));
+            }
+            _alphabet = new ExtendedCharacterRange(vals.toString());
+            build(5, 3, rand);
+            break;
+        case "manyRotors":
+            _alphabet = new CharacterRange('A', 'Z');
+            build(12, 11, rand);
+            break;
+        default:
+            throw new IllegalArgumentException(config);
+        }
+        _message = randomText(MESSAGE_LENGTH, rand);
+        _longMessage = randomText(LONG_MESSAGE_LENGTH, rand);
+        _out = new char[LONG_MESSAGE_LENGTH];
+        StringBuilder input = new StringBuilder(_settingsLine).append('\n');
+        for (int i = 0; i < MESSAGE_LENGTH; i += LINE_LENGTH) {
+            input.append(_message, i, Math.min(MESSAGE_LENGTH,
+                                               i + LINE_LENGTH));
+            input.append('\n');
+        }
+        _mainInput = input.toString();
+        _discard = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    /** Set _machine to a random machine on _alphabet with NUMROTORS
+     *  slots and PAWLS pawls, and set _settingsLine to a settings line
+     *  selecting its rotors, using RAND. */
+    private void build(int numRotors, int pawls, Random rand) {
+        ArrayList<Rotor> all = new ArrayList<>();
+        String[] names = new String[numRotors];
+        for (int i = 0; i < numRotors; i += 1) {
+            names[i] = "R" + i;
+            if (i == 0) {
+                all.add(new Reflector(names[i], reflector(rand)));
+            } else if (i < numRotors - pawls) {
+                all.add(new FixedRotor(names[i], randomCycle(rand)));
+            } else {
+                all.add(new MovingRotor(names[i], randomCycle(rand),
+                                        "" + _alphabet.toChar(i)));
+            }
+        }
+        _machine = new Machine(_alphabet, numRotors, pawls, all);
+        _machine.insertRotors(names);
+        _setting = randomText(numRotors - 1, rand);
+        _machine.setRotors(_setting);
+        String plugboard = "(" + _alphabet.toChar(0) + _alphabet.toChar(1)
+            + ") (" + _alphabet.toChar(2) + _alphabet.toChar(3) + ")";
+        _machine.setPlugboard(new Permutation(plugboard, _alphabet));
+        _permutation = all.get(all.size() - 1).permutation();
+        _settingsLine = "* " + String.join(" ", names) + " " + _setting
+            + " " + plugboard;
+    }
+
+    /** Return a permutation of _alphabet that is a single random cycle,
+     *  using RAND. */
+    private Permutation randomCycle(Random rand) {
+        char[] chars = shuffledAlphabet(rand);
+        return new Permutation("(" + new String(chars) + ")", _alphabet);
+    }
+
+    /** Return a random pairing of the characters of _alphabet, using
+     *  RAND. */
+    private Permutation reflector(Random rand) {
+        char[] chars = shuffledAlphabet(rand);
+        StringBuilder cycles = new StringBuilder();
+        for (int i = 0; i + 1 < chars.length; i += 2) {
+            cycles.append('(').append(chars[i]).append(chars[i + 1])
+                .append(')');
+        }
+        return new Permutation(cycles.toString(), _alphabet);
+    }
+
+    /** Return the characters of _alphabet in an order chosen with
+     *  RAND. */
+    private char[] shuffledAlphabet(Random rand) {
+        char[] chars = new char[_alphabet.size()];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = _alphabet.toChar(i);
+        }
+        for (int i = chars.length - 1; i > 0; i -= 1) {
+            int j = rand.nextInt(i + 1);
+            char t = chars[i];
+            chars[i] = chars[j];
+            chars[j] = t;
+        }
+        return chars;
+    }
+
+    /** Return LEN random characters of _alphabet, using RAND. */
+    private String randomText(int len, Random rand) {
+        char[] result = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = _alphabet.toChar(rand.nextInt(_alphabet.size()));
+        }
+        return new String(result);
+    }
+
+    /** Machine.convert(String) on a message. */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_LENGTH)
+    public String convertString() {
+        _machine.setRotors(_setting);
+        return _machine.convert(_message);
+    }
+
+    /** Machine.convert into a preallocated char array. */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_LENGTH)
+    public int convertChars() {
+        _machine.setRotors(_setting);
+        return _machine.convert(_message, _out, 0);
+    }
+
+    /** Machine.convert on a long message. */
+    @Benchmark
+    @OperationsPerInvocation(LONG_MESSAGE_LENGTH)
+    public int convertLong() {
+        _machine.setRotors(_setting);
+        return _machine.convert(_longMessage, _out, 0);
+    }
+
+    /** Machine.convertParallel on a long message. */
+    @Benchmark
+    @OperationsPerInvocation(LONG_MESSAGE_LENGTH)
+    public int convertLongParallel() {
+        _machine.setRotors(_setting);
+        return _machine.convertParallel(_longMessage, _out, 0);
+    }
+
+    /** Permutation.permute on character indices. */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_LENGTH)
+    public int permute() {
+        int p = 0;
+        for (int i = 0; i < MESSAGE_LENGTH; i += 1) {
+            p = _permutation.permute(p);
+        }
+        return p;
+    }
+
+    /** Main.process end to end through the streaming Reader path:
+     *  settings line, conversion, and output formatting of a message
+     *  split into lines. */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_LENGTH)
+    public void mainProcess() {
+        new Main(_machine, new StringReader(_mainInput), _discard).process();
+    }
+
+    /** Alphabet of the machine under test. */
+    private Alphabet _alphabet;
+    /** Machine under test. */
+    private Machine _machine;
+    /** Initial rotor setting of _machine. */
+    private String _setting;
+    /** Settings line for _machine in Main's input format. */
+    private String _settingsLine;
+    /** Permutation of one of _machine's rotors. */
+    private Permutation _permutation;
+    /** Messages of MESSAGE_LENGTH and LONG_MESSAGE_LENGTH characters. */
+    private String _message, _longMessage;
+    /** Input to Main: a settings line followed by _message in lines. */
+    private String _mainInput;
+    /** Destination for converted characters. */
+    private char[] _out;
+    /** Output stream that discards Main's output. */
+    private PrintStream _discard;
+}
@@ -0,0 +1,71 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A MachineBatch that converts many lanes at once with vector gathers
+ *  from the incubating Vector API.  Compile and run with
+ *  --add-modules jdk.incubator.vector (see the vector target in the
+ *  Makefile); without it, MachineBatch.create falls back to the scalar
+ *  MachineBatch.
+ *  @author Terrance Wang
+ */
+final class VectorMachineBatch extends MachineBatch {
+
+    /** Vector shape used. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /** A vector batch converter for up to LANES messages on the rotors
+     *  now in MACHINE. */
+    VectorMachineBatch(Machine machine, int lanes) {
+        super(machine, lanes);
+        _base = new int[lanes];
+        for (int l = 0; l < lanes; l += 1) {
+            _base[l] = l * _size;
+        }
+        _index = new int[SPECIES.length()];
+    }
+
+    @Override
+    void encode(int[] in, int[] out, int from, int to) {
+        int width = SPECIES.length();
+        int end = from + (to - from) / width * width;
+        IntVector size = IntVector.broadcast(SPECIES, _size);
+        for (int l = from; l < end; l += width) {
+            IntVector base = IntVector.fromArray(SPECIES, _base, l);
+            IntVector c = gather(_plug,
+                                 IntVector.fromArray(SPECIES, in, l).add(base));
+            for (int k = 0; k < _fwd.length; k += 1) {
+                c = layer(_fwd[k], _pos[_fwdSlot[k]], l, c, size);
+            }
+            for (int k = 0; k < _bwd.length; k += 1) {
+                c = layer(_bwd[k], _pos[_bwdSlot[k]], l, c, size);
+            }
+            gather(_unplug, c.add(base)).intoArray(out, l);
+        }
+        super.encode(in, out, end, to);
+    }
+
+    /** Return the vector of outputs of a rotor with doubled wiring table
+     *  TABLE and settings POS[L ..] for the inputs C.  SIZE holds the
+     *  alphabet size in every lane. */
+    private IntVector layer(int[] table, int[] pos, int l, IntVector c,
+                            IntVector size) {
+        IntVector p = IntVector.fromArray(SPECIES, pos, l);
+        IntVector v = gather(table, c.add(p)).sub(p);
+        return v.add(size, v.compare(VectorOperators.LT, 0));
+    }
+
+    /** Return the vector of entries of TABLE at INDICES. */
+    private IntVector gather(int[] table, IntVector indices) {
+        indices.intoArray(_index, 0);
+        return IntVector.fromArray(SPECIES, table, 0, _index, 0);
+    }
+
+    /** Offset of each lane's plugboard in _plug and _unplug. */
+    private final int[] _base;
+    /** Scratch index map for gathers. */
+    private final int[] _index;
+}